@@ -35,15 +35,6 @@ repositories {
             excludeGroupByRegex("org.terasology(..+)?")
         }
     }
-    // JBoss Maven Repository requried to fetch `org.jpastebin` dependency for CrashReporter
-    // https://developer.jboss.org/docs/DOC-11377
-    maven {
-        name = "JBoss Public Maven Repository Group"
-        url = uri("https://repository.jboss.org/nexus/content/repositories/public/")
-        content {
-            includeModule("org", "jpastebin")
-        }
-    }
     maven {
         name = "Terasology Artifactory"
         url = uri("https://artifactory.terasology.io/artifactory/virtual-repo-live")
@@ -61,7 +52,6 @@ dependencies {
     pmd("net.sourceforge.pmd:pmd-core:7.0.0-rc4")
     pmd("net.sourceforge.pmd:pmd-java:7.0.0-rc4")
 
-    implementation("org:jpastebin:1.0.1")
     implementation("org.apache.httpcomponents:httpclient:4.5.13")
     implementation("org.apache.httpcomponents:httpmime:4.5.13")
 
@@ -152,7 +142,4 @@ tasks.javadoc {
 
 tasks.test {
     useJUnitPlatform()
-    // InteractiveTestCases is a manual runner (see runInteractiveTest), not an automated test -
-    // there are no @Test methods in this project.
-    failOnNoDiscoveredTests.set(false)
 }
@@ -3,18 +3,14 @@
 
 package org.terasology.crashreporter;
 
-import javax.swing.JDialog;
-import javax.swing.LookAndFeel;
-import javax.swing.SwingUtilities;
-import javax.swing.UIManager;
-import javax.swing.WindowConstants;
-
 import org.terasology.crashreporter.GlobalProperties.KEY;
+import org.terasology.crashreporter.pages.SpooledReportUploader;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.SharedHttpClient;
+import org.terasology.crashreporter.upload.UploadCache;
 
-import java.awt.Dialog;
-import java.awt.Dimension;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -46,7 +42,9 @@ public final class CrashReporter {
     }
 
     /**
-     * Can be called from any thread.
+     * Can be called from any thread. Without a display, e.g. on dedicated servers, the report is written
+     * to the log folder instead of showing a window. Platforms that show the window in a separate process
+     * always do so, as the game may run headless there although a display is available.
      * @param throwable the exception to report
      * @param logFileFolder the log file folder or <code>null</code>
      * @param mode crash reporter, issue reporter or feedback window
@@ -54,36 +52,68 @@ public final class CrashReporter {
     public static void report(final Throwable throwable, final Path logFileFolder, final MODE mode) {
         if (requiresProcessIsolation()) {
             reportInSubprocess(throwable, logFileFolder, mode);
+        } else if (isHeadless()) {
+            reportHeadless(throwable, logFileFolder, mode);
         } else {
             reportInProcess(throwable, logFileFolder, mode);
         }
     }
 
+    /**
+     * Uploads the reports that could not be uploaded before, e.g. because the machine was offline.
+     * This returns immediately - the reports are uploaded by a background thread. Can be called on startup.
+     * @param logFileFolder the log file folder or <code>null</code>
+     */
+    public static void uploadSpooledReports(Path logFileFolder) {
+        GlobalProperties properties = new GlobalProperties();
+        ReportSpool spool = ReportSpool.create(properties, logFileFolder);
+        if (spool != null) {
+            UploadCache cache = UploadCache.create(properties, logFileFolder);
+            spool.drainInBackground(new SpooledReportUploader(properties, SharedHttpClient.get(properties), cache));
+        }
+    }
+
     private static void reportInProcess(final Throwable throwable, final Path logFileFolder, final MODE mode) {
-        // Swing element methods must be called in the swing thread
+        uploadSpooledReports(logFileFolder);
+        ReportDialog.show(throwable, logFileFolder, mode);
+    }
+
+    /**
+     * Writes the report to the log folder, without loading any AWT or Swing classes, see {@link ReportBuilder}.
+     */
+    private static void reportHeadless(Throwable throwable, Path logFileFolder, MODE mode) {
+        GlobalProperties properties = new GlobalProperties();
+        ReportBuilder builder = new ReportBuilder(throwable).logFolder(logFileFolder).mode(mode).properties(properties);
         try {
-            SwingUtilities.invokeAndWait(new Runnable() {
-
-                @Override
-                public void run() {
-                    LookAndFeel oldLaF = UIManager.getLookAndFeel();
-                    try {
-                        UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    GlobalProperties properties = new GlobalProperties();
-                    showModalDialog(throwable, properties, logFileFolder, mode);
-                    try {
-                        UIManager.setLookAndFeel(oldLaF);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-        } catch (InvocationTargetException | InterruptedException e) {
+            Path file = builder.writeTo(logFileFolder != null ? logFileFolder : Paths.get(""));
+            System.err.println("Report written to " + file.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Could not write the report");
             e.printStackTrace();
         }
+        if (Boolean.parseBoolean(properties.get(KEY.HEADLESS_UPLOAD))) {
+            try {
+                URL link = builder.uploadOrSpool();
+                System.err.println(link != null ? "Report uploaded to " + link : "Report will be uploaded on the next start");
+            } catch (Exception e) {
+                System.err.println("Could not upload the report");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Follows AWT, which has no display if <code>java.awt.headless</code> is true or, on X11 platforms,
+     * if <code>DISPLAY</code> is not set - without loading AWT classes to ask it.
+     */
+    private static boolean isHeadless() {
+        String headless = System.getProperty("java.awt.headless");
+        if (headless != null) {
+            return Boolean.parseBoolean(headless);
+        }
+        String osName = System.getProperty("os.name", "").toLowerCase();
+        boolean x11 = !osName.contains("windows") && !osName.contains("mac");
+        return x11 && System.getenv("DISPLAY") == null;
     }
 
     /**
@@ -192,26 +222,6 @@ public final class CrashReporter {
     }
 
     protected static void showModalDialog(Throwable throwable, GlobalProperties properties, Path logFolder, MODE mode) {
-        String dialogTitle;
-        switch (mode) {
-            case FEEDBACK: dialogTitle = I18N.getMessage("feedbackTitle"); break;//For future feedback use
-            case ISSUE_REPORTER: dialogTitle = I18N.getMessage("issueTitle"); break;
-            default: dialogTitle = I18N.getMessage("crashTitle"); break;
-        }
-        String version = Resources.getVersion();
-
-        if (version != null) {
-            dialogTitle += " " + version;
-        }
-
-        RootPanel panel = new RootPanel(throwable, properties, logFolder, mode);
-        JDialog dialog = new JDialog((Dialog) null, dialogTitle, false);
-        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-        dialog.setIconImage(Resources.loadImage(properties.get(KEY.RES_SERVER_ICON)));
-        dialog.setContentPane(panel);
-        dialog.setMinimumSize(new Dimension(600, 400));
-        dialog.setLocationRelativeTo(null);
-        dialog.setResizable(true);      // disabled by default
-        dialog.setVisible(true);
+        ReportDialog.showModalDialog(throwable, properties, logFolder, mode);
     }
 }
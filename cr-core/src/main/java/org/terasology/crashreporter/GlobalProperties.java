@@ -19,6 +19,35 @@ public final class GlobalProperties {
         JOIN_DISCORD_LINK,
         REPORT_ISSUE_LINK,
 
+        LOG_INCLUDE,
+        LOG_EXCLUDE,
+        LOG_PRUNE,
+        LOG_MAX_DEPTH,
+        LOG_MEMORY_BUDGET_MB,
+        LOG_UPDATE_RATE,
+        LOG_FOLLOW_MAX_LINES,
+        LOG_FOLLOW_MAX_MB,
+
+        UPLOAD_CONNECT_TIMEOUT,
+        UPLOAD_SOCKET_TIMEOUT,
+        UPLOAD_KEEP_ALIVE,
+        UPLOAD_MAX_CONNECTIONS,
+        UPLOAD_RETRIES,
+        UPLOAD_PARALLEL_PARTS,
+        UPLOAD_RATE_LIMIT_CRASH,
+        UPLOAD_RATE_LIMIT_ISSUE,
+        UPLOAD_MAX_LOGS,
+        UPLOAD_PASTEBIN_MAX_KB,
+        UPLOAD_PASTEBIN_MAX_PASTES,
+        UPLOAD_HOSTED_URL,
+        UPLOAD_SPOOL_DIR,
+        UPLOAD_SPOOL_MAX_MB,
+        UPLOAD_SPOOL_MAX_DAYS,
+        UPLOAD_CACHE_DAYS,
+
+        HEADLESS_UPLOAD,
+        HEADLESS_MAX_LOGS,
+
         RES_BANNER_IMAGE,
         RES_SERVER_ICON,
         RES_ARROW_PREV,
@@ -55,4 +84,21 @@ public final class GlobalProperties {
     public String get(KEY key) {
         return properties.getProperty(key.name());
     }
+
+    /**
+     * @param key          the key of a numeric property
+     * @param defaultValue the value to use if the property is missing or not a number
+     * @return the value of the property
+     */
+    public long getLong(KEY key, long defaultValue) {
+        String value = get(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
 }
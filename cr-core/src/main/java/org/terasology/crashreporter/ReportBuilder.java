@@ -0,0 +1,364 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter;
+
+import org.terasology.crashreporter.GlobalProperties.KEY;
+import org.terasology.crashreporter.logs.LogCatalog;
+import org.terasology.crashreporter.logs.LogDecoder;
+import org.terasology.crashreporter.pages.HostedReportUpload;
+import org.terasology.crashreporter.pages.PastebinReportUpload;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.SharedHttpClient;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Creates a report without a window, e.g. on dedicated servers that run headless or from a shutdown hook.
+ * It contains some metadata, the stack trace and the log files that the report window would show.
+ * The report is written to a file or uploaded to Pastebin or the server that is configured by <code>UPLOAD_HOSTED_URL</code>.
+ * <p>
+ * No AWT or Swing classes are loaded. Log files are only listed when the report is created and are
+ * copied or uploaded straight from their file where possible, so this is fast even for large logs.
+ * <pre>
+ * new ReportBuilder(throwable).logFolder(logFolder).metadata("World", worldName).writeTo(logFolder);
+ * </pre>
+ */
+public final class ReportBuilder {
+
+    /**
+     * The name of the part of the report that contains the metadata and the stack trace
+     */
+    public static final String SUMMARY_NAME = "Report";
+
+    private static final long DEFAULT_MAX_LOGS = 5;
+
+    /**
+     * The text of a log that cannot be read from its file is cut to this many chars
+     */
+    private static final int MAX_CONTENT_LENGTH = 8 << 20;
+
+    private final Throwable throwable;
+    private final Map<String, String> metadata = new LinkedHashMap<>();
+    private final long created = System.currentTimeMillis();
+    private GlobalProperties properties;
+    private Path logFolder;
+    private CrashReporter.MODE mode = CrashReporter.MODE.CRASH_REPORTER;
+    private String message = "";
+
+    /**
+     * @param throwable the exception to report or <code>null</code>
+     */
+    public ReportBuilder(Throwable throwable) {
+        this.throwable = throwable;
+        metadata.put("Version", getVersion());
+        metadata.put("OS", System.getProperty("os.name") + " " + System.getProperty("os.version")
+                + " (" + System.getProperty("os.arch") + ")");
+        metadata.put("Java", System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ")");
+        Runtime runtime = Runtime.getRuntime();
+        metadata.put("Memory", (runtime.totalMemory() - runtime.freeMemory() >> 20) + " MB used, "
+                + (runtime.maxMemory() >> 20) + " MB max");
+        metadata.put("Processors", Integer.toString(runtime.availableProcessors()));
+    }
+
+    /**
+     * @param folder the log file folder or <code>null</code> to not include any logs
+     * @return this
+     */
+    public ReportBuilder logFolder(Path folder) {
+        this.logFolder = folder;
+        return this;
+    }
+
+    /**
+     * @param reportMode crash reporter (default), issue reporter or feedback
+     * @return this
+     */
+    public ReportBuilder mode(CrashReporter.MODE reportMode) {
+        this.mode = reportMode;
+        return this;
+    }
+
+    /**
+     * @param text a message that describes the problem, e.g. given by a server admin
+     * @return this
+     */
+    public ReportBuilder message(String text) {
+        this.message = text != null ? text : "";
+        return this;
+    }
+
+    /**
+     * Adds an entry to the metadata of the report or replaces one, e.g. the version of the game.
+     * @param key   the name of the entry
+     * @param value the value of the entry
+     * @return this
+     */
+    public ReportBuilder metadata(String key, String value) {
+        metadata.put(key, value);
+        return this;
+    }
+
+    /**
+     * @param globalProperties the properties that configure log discovery and uploads, the defaults are used otherwise
+     * @return this
+     */
+    public ReportBuilder properties(GlobalProperties globalProperties) {
+        this.properties = globalProperties;
+        return this;
+    }
+
+    /**
+     * @return the metadata, the message and the stack trace
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder("REPORT INFO:\n");
+        summary.append("Mode: ").append(mode).append('\n');
+        summary.append("Time: ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.ROOT).format(new Date(created)))
+                .append('\n');
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            summary.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        if (!message.isEmpty()) {
+            summary.append("\nUSER-GIVEN INFO:\n").append(message).append('\n');
+        }
+        if (throwable != null) {
+            StringWriter stackTrace = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(stackTrace));
+            summary.append("\nERROR STACK TRACE:\n").append(stackTrace);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Lists the log files like the report window does, only the most recently created ones
+     * up to <code>HEADLESS_MAX_LOGS</code> are included. Their content is read when it is written or uploaded.
+     * Compressed logs and logs that are not UTF-8 encoded are decoded into temporary files then.
+     * @return the logs, most recently created first - they must be closed afterwards
+     * @throws IOException if the log folder cannot be read
+     */
+    public List<Attachment> getLogs() throws IOException {
+        if (logFolder == null || !Files.isDirectory(logFolder)) {
+            return Collections.emptyList();
+        }
+        final LogCatalog catalog = new LogCatalog(logFolder, getProperties());
+        catalog.scan(new Consumer<LogCatalog.Entry>() {
+            @Override
+            public void accept(LogCatalog.Entry entry) {
+                catalog.insert(entry);
+            }
+        });
+        long maxLogs = getProperties().getLong(KEY.HEADLESS_MAX_LOGS, DEFAULT_MAX_LOGS);
+        List<Attachment> logs = new ArrayList<>();
+        for (final LogCatalog.Entry entry : catalog.getEntries()) {
+            if (logs.size() >= maxLogs) {
+                break;
+            }
+            String name = logFolder.relativize(entry.getPath()).toString();
+            if (entry.getArchiveEntry() != null) {
+                name += "!" + entry.getArchiveEntry();
+            }
+            Supplier<String> content = new Supplier<String>() {
+                @Override
+                public String get() {
+                    try {
+                        return LogDecoder.readTail(entry.openStream(), Charset.defaultCharset(), MAX_CONTENT_LENGTH);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            if (entry.isArchived()) {
+                logs.add(new Attachment(name, content, new Callable<InputStream>() {
+                    @Override
+                    public InputStream call() throws IOException {
+                        return entry.openStream();
+                    }
+                }));
+            } else {
+                // lines that are written from now on are not part of the report
+                logs.add(new Attachment(name, content, entry.getPath(), 0, entry.getSize()));
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * Writes the report into a single text file. Logs in UTF-8 are copied as they are, others are decoded first.
+     * @param directory the folder to write the report to, e.g. the log folder
+     * @return the report file
+     * @throws IOException if the report cannot be written
+     */
+    public Path writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String fileName = getFilePrefix() + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date(created));
+        Path file = directory.resolve(fileName + ".txt");
+        for (int i = 2; Files.exists(file); i++) {
+            file = directory.resolve(fileName + "-" + i + ".txt");
+        }
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write(getSummary());
+            List<Attachment> logs = getLogs();
+            try {
+                for (Attachment log : logs) {
+                    writer.write("\n===== " + log.getName() + " =====\n");
+                    writer.flush();
+                    try {
+                        log.writeTo(out);
+                    } catch (IOException e) {
+                        // e.g. deleted in the meantime - the rest of the report is still useful
+                        writer.write("Could not read the log: " + e + "\n");
+                    }
+                }
+            } finally {
+                Attachment.closeAll(logs);
+            }
+            writer.flush();
+        }
+        return file;
+    }
+
+    /**
+     * Uploads the report to the server that is configured by <code>UPLOAD_HOSTED_URL</code>, see
+     * {@link HostedReportUpload}, or to Pastebin, see {@link PastebinReportUpload}. Failed requests are retried,
+     * so this can take a while if the network is down.
+     * @return the link of the report
+     * @throws Exception if the upload fails
+     */
+    public URL upload() throws Exception {
+        List<Attachment> parts = createParts();
+        try {
+            URI serverUri = HostedReportUpload.getServerUri(getProperties());
+            return serverUri != null ? createHostedUpload(serverUri, parts).call() : createUpload(parts).call();
+        } finally {
+            Attachment.closeAll(parts);
+        }
+    }
+
+    /**
+     * Uploads the report like {@link #upload()}. If that fails for a transient reason, e.g. the machine is offline,
+     * the report is spooled instead and uploaded by {@link CrashReporter#uploadSpooledReports(Path)} later.
+     * @return the link of the report or <code>null</code> if it was spooled
+     * @throws Exception if the upload fails and the report could not be spooled
+     */
+    public URL uploadOrSpool() throws Exception {
+        List<Attachment> parts = createParts();
+        try {
+            URI serverUri = HostedReportUpload.getServerUri(getProperties());
+            if (serverUri != null) {
+                HostedReportUpload upload = createHostedUpload(serverUri, parts);
+                return uploadOrSpool(upload, upload.getTarget(), upload);
+            }
+            PastebinReportUpload upload = createUpload(parts);
+            return uploadOrSpool(upload, ReportSpool.PASTEBIN, upload);
+        } finally {
+            Attachment.closeAll(parts);
+        }
+    }
+
+    private URL uploadOrSpool(Callable<URL> upload, String target, ReportSpool.Content content) throws Exception {
+        try {
+            return upload.call();
+        } catch (Exception e) {
+            ReportSpool spool = ReportSpool.create(getProperties(), logFolder);
+            if (spool == null || !RetryingCallable.isTransient(e) || !spool.add(target, SUMMARY_NAME, content)) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    private List<Attachment> createParts() throws IOException {
+        List<Attachment> parts = new ArrayList<>();
+        final String summary = getSummary();
+        parts.add(new Attachment(SUMMARY_NAME, new Supplier<String>() {
+            @Override
+            public String get() {
+                return summary;
+            }
+        }));
+        parts.addAll(getLogs());
+        return parts;
+    }
+
+    private PastebinReportUpload createUpload(List<Attachment> parts) {
+        return new PastebinReportUpload(getProperties(), SharedHttpClient.get(getProperties()), "", parts,
+                UploadCache.create(getProperties(), logFolder), createListener(), new UploadMonitor());
+    }
+
+    private HostedReportUpload createHostedUpload(URI serverUri, List<Attachment> parts) {
+        return new HostedReportUpload(getProperties(), SharedHttpClient.get(getProperties()), serverUri, "", parts,
+                UploadCache.create(getProperties(), logFolder), createListener(), new UploadMonitor());
+    }
+
+    private static RetryingCallable.Listener createListener() {
+        return new RetryingCallable.Listener() {
+            @Override
+            public void retrying(int attempt, long delay, Exception cause) {
+                System.err.println("Report upload failed, retrying in " + delay + " ms: " + cause);
+            }
+        };
+    }
+
+    private GlobalProperties getProperties() {
+        if (properties == null) {
+            properties = new GlobalProperties();
+        }
+        return properties;
+    }
+
+    private String getFilePrefix() {
+        switch (mode) {
+            case FEEDBACK: return "feedback-";
+            case ISSUE_REPORTER: return "issue-report-";
+            default: return "crash-report-";
+        }
+    }
+
+    /**
+     * Like {@link Resources#getVersion()}, which loads AWT classes for its images.
+     */
+    private static String getVersion() {
+        try (InputStream is = ReportBuilder.class.getResourceAsStream("versionInfo.properties")) {
+            if (is == null) {
+                return "";
+            }
+            Properties props = new Properties();
+            props.load(is);
+            return props.getProperty("displayVersion", "");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter;
+
+import javax.swing.JDialog;
+import javax.swing.LookAndFeel;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import javax.swing.WindowConstants;
+
+import org.terasology.crashreporter.GlobalProperties.KEY;
+
+import java.awt.Dialog;
+import java.awt.Dimension;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+
+/**
+ * The window of the reporter. It is kept apart from {@link CrashReporter}, so that reporting
+ * without a display does not even load AWT or Swing classes.
+ */
+final class ReportDialog {
+
+    private ReportDialog() {
+        // only static methods
+    }
+
+    /**
+     * Shows the report window and returns once it is visible.
+     * @param throwable     the exception to report
+     * @param logFileFolder the log file folder or <code>null</code>
+     * @param mode          crash reporter, issue reporter or feedback window
+     */
+    static void show(final Throwable throwable, final Path logFileFolder, final CrashReporter.MODE mode) {
+        // Swing element methods must be called in the swing thread
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+                    LookAndFeel oldLaF = UIManager.getLookAndFeel();
+                    try {
+                        UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    GlobalProperties properties = new GlobalProperties();
+                    showModalDialog(throwable, properties, logFileFolder, mode);
+                    try {
+                        UIManager.setLookAndFeel(oldLaF);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (InvocationTargetException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    static void showModalDialog(Throwable throwable, GlobalProperties properties, Path logFolder, CrashReporter.MODE mode) {
+        String dialogTitle;
+        switch (mode) {
+            case FEEDBACK: dialogTitle = I18N.getMessage("feedbackTitle"); break;//For future feedback use
+            case ISSUE_REPORTER: dialogTitle = I18N.getMessage("issueTitle"); break;
+            default: dialogTitle = I18N.getMessage("crashTitle"); break;
+        }
+        String version = Resources.getVersion();
+
+        if (version != null) {
+            dialogTitle += " " + version;
+        }
+
+        final ReportSession session = new ReportSession();
+        RootPanel panel = new RootPanel(throwable, properties, logFolder, mode, session);
+        JDialog dialog = new JDialog((Dialog) null, dialogTitle, false);
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        // stop watching and reading the log files once the dialog is gone
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                session.close();
+            }
+        });
+        dialog.setIconImage(Resources.loadImage(properties.get(KEY.RES_SERVER_ICON)));
+        dialog.setContentPane(panel);
+        dialog.setMinimumSize(new Dimension(600, 400));
+        dialog.setLocationRelativeTo(null);
+        dialog.setResizable(true);      // disabled by default
+        dialog.setVisible(true);
+    }
+}
@@ -0,0 +1,88 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Owns the resources of one reporter window, such as background workers, timers and open files,
+ * and releases them when the window is closed. Resources are released in reverse order of their addition.
+ */
+public final class ReportSession implements Closeable {
+
+    private final Deque<Closeable> resources = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * Adds a resource that is closed with the session. If the session was closed already, the resource
+     * is closed immediately.
+     * @param resource the resource
+     * @return the resource
+     */
+    public <T extends Closeable> T add(T resource) {
+        synchronized (resources) {
+            if (!closed) {
+                resources.push(resource);
+                return resource;
+            }
+        }
+        closeQuietly(resource);
+        return resource;
+    }
+
+    /**
+     * Cancels a background task when the session is closed. The task is interrupted if it is running.
+     * @param task the task, e.g. a {@link javax.swing.SwingWorker}
+     */
+    public void cancelOnClose(final Future<?> task) {
+        add(new Closeable() {
+            @Override
+            public void close() {
+                task.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * @return true if the session was closed
+     */
+    public boolean isClosed() {
+        synchronized (resources) {
+            return closed;
+        }
+    }
+
+    /**
+     * Closes all resources of the session. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        List<Closeable> toClose;
+        synchronized (resources) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toClose = new ArrayList<>(resources);
+            resources.clear();
+        }
+        for (Closeable resource : toClose) {
+            closeQuietly(resource);
+        }
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -8,6 +8,9 @@ import org.terasology.crashreporter.pages.ErrorMessagePanel;
 import org.terasology.crashreporter.pages.FinalActionsPanel;
 import org.terasology.crashreporter.pages.UploadPanel;
 import org.terasology.crashreporter.pages.UserInfoPanel;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.UploadCache;
 import org.terasology.gui.JImage;
 import org.terasology.gui.RXCardLayout;
 
@@ -46,8 +49,10 @@ public class RootPanel extends JPanel {
      * @param properties    the properties for this dialog wizard
      * @param logFolderFile the log file or <code>null</code>
      * @param mode          crash reporter, issue reporter or feedback window
+     * @param session       the session that owns the resources of the dialog
      */
-    public RootPanel(Throwable exception, GlobalProperties properties, Path logFolderFile, CrashReporter.MODE mode) {
+    public RootPanel(Throwable exception, GlobalProperties properties, Path logFolderFile, CrashReporter.MODE mode,
+                     ReportSession session) {
 
         setLayout(new BorderLayout());
         Font buttonFont = getFont().deriveFont(Font.BOLD, 14f);
@@ -57,22 +62,32 @@ public class RootPanel extends JPanel {
         final Icon closeIcon = Resources.loadIcon(properties.get(KEY.RES_EXIT_ICON));
 
         List<JComponent> pages = new ArrayList<>();
-        final ErrorMessagePanel errorMessagePanel = new ErrorMessagePanel(properties, exception, logFolderFile, mode);
+        final ErrorMessagePanel errorMessagePanel = new ErrorMessagePanel(properties, exception, logFolderFile, mode, session);
         pages.add(errorMessagePanel);
-        final UserInfoPanel userInfoPanel = new UserInfoPanel(properties,
-                errorMessagePanel.getLog(), errorMessagePanel.getLogFile());
+        // the log files are discovered and loaded in the background, so they are queried only when needed
+        final UserInfoPanel userInfoPanel = new UserInfoPanel(properties, new Supplier<Path>() {
+            @Override
+            public Path get() {
+                return errorMessagePanel.getLogFile();
+            }
+        });
         pages.add(userInfoPanel);
         final UploadPanel uploadPanel = new UploadPanel(properties, new Supplier<String>() {
             @Override
             public String get() {
-                return userInfoPanel.getLog();
+                return userInfoPanel.getUserInfo();
+            }
+        }, new Supplier<List<Attachment>>() {
+            @Override
+            public List<Attachment> get() {
+                return errorMessagePanel.getLogs();
             }
         }, new Supplier<String>() {
             @Override
             public String get() {
-                return userInfoPanel.getLogFile().toString();
+                return String.valueOf(userInfoPanel.getLogFile());
             }
-        });
+        }, ReportSpool.create(properties, logFolderFile), UploadCache.create(properties, logFolderFile), mode);
         pages.add(uploadPanel);
         pages.add(new FinalActionsPanel(properties, new Supplier<URL>() {
 
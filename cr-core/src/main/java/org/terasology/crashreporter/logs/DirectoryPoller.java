@@ -0,0 +1,162 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Detects created and modified files by comparing size and modification time of the files in a set
+ * of directories. This is used where a {@link java.nio.file.WatchService} is slow or does not receive events,
+ * e.g. on network or FUSE mounts.
+ * <p>
+ * The poll interval adapts to the activity: it drops to {@link #MIN_INTERVAL} as soon as a change is seen
+ * and doubles with every poll without changes, up to {@link #MAX_INTERVAL}.
+ */
+public final class DirectoryPoller {
+
+    /**
+     * The poll interval in milliseconds while files are changing
+     */
+    public static final long MIN_INTERVAL = 100;
+
+    /**
+     * The poll interval in milliseconds when nothing has changed for a while
+     */
+    public static final long MAX_INTERVAL = 5000;
+
+    private final Map<Path, Map<Path, FileState>> directories = new HashMap<>();
+    private long interval = MIN_INTERVAL;
+
+    /**
+     * Receives the changes that were found by {@link DirectoryPoller#poll(Listener)}.
+     */
+    public interface Listener {
+
+        /**
+         * @param file a file that did not exist at the previous poll
+         */
+        void created(Path file);
+
+        /**
+         * @param file a file whose size or modification time has changed
+         */
+        void modified(Path file);
+
+        /**
+         * @param dir a subdirectory that did not exist at the previous poll. It is not polled automatically.
+         */
+        void directoryCreated(Path dir);
+    }
+
+    private static final class FileState {
+        private final boolean directory;
+        private final long size;
+        private final long lastModified;
+
+        FileState(BasicFileAttributes attrs) {
+            this.directory = attrs.isDirectory();
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        boolean isModified(FileState previous) {
+            return size != previous.size || lastModified != previous.lastModified;
+        }
+    }
+
+    /**
+     * Starts polling a directory. The files that exist now are not reported as created.
+     * @param dir the directory
+     */
+    public void add(Path dir) {
+        if (!directories.containsKey(dir)) {
+            Map<Path, FileState> files = list(dir, new HashMap<Path, FileState>());
+            if (files != null) {
+                directories.put(dir, files);
+            }
+        }
+    }
+
+    /**
+     * @return true if at least one directory is polled
+     */
+    public boolean isActive() {
+        return !directories.isEmpty();
+    }
+
+    /**
+     * @return the time to wait in milliseconds until the next poll
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Compares all polled directories with the previous poll. Directories that no longer exist are dropped.
+     * @param listener receives the changes
+     */
+    public void poll(Listener listener) {
+        boolean changed = false;
+        for (Path dir : new ArrayList<>(directories.keySet())) {
+            Map<Path, FileState> previous = directories.get(dir);
+            Map<Path, FileState> current = list(dir, previous);
+            if (current == null) {
+                directories.remove(dir);
+                continue;
+            }
+            for (Map.Entry<Path, FileState> entry : current.entrySet()) {
+                Path file = entry.getKey();
+                FileState state = entry.getValue();
+                FileState old = previous.get(file);
+                if (old == null) {
+                    changed = true;
+                    if (state.directory) {
+                        listener.directoryCreated(file);
+                    } else {
+                        listener.created(file);
+                    }
+                } else if (!state.directory && state.isModified(old)) {
+                    changed = true;
+                    listener.modified(file);
+                }
+            }
+            directories.put(dir, current);
+        }
+        interval = changed ? MIN_INTERVAL : Math.min(MAX_INTERVAL, interval * 2);
+    }
+
+    /**
+     * @param previous the result of the previous poll, it is returned if the directory cannot be read right now
+     * @return the state of all files in the directory or <code>null</code> if the directory does not exist anymore
+     */
+    private static Map<Path, FileState> list(Path dir, Map<Path, FileState> previous) {
+        Map<Path, FileState> files = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    files.put(file, new FileState(attrs));
+                } catch (IOException e) {
+                    // deleted in the meantime
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // temporarily unavailable (e.g. a network mount) - try again next time
+            System.err.println("Could not poll " + dir + ": " + e.getMessage());
+            return previous;
+        }
+        return files;
+    }
+}
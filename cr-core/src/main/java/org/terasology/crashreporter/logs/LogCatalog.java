@@ -0,0 +1,458 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The log files of a log folder, most recently created first.
+ * <p>
+ * File attributes are read once per file when it is discovered, and new files are inserted at their position
+ * so the list is never re-sorted. Which files are considered to be logs is configured in
+ * <code>crashreporter.properties</code>:
+ * <ul>
+ * <li>LOG_INCLUDE, LOG_EXCLUDE - patterns that are matched against the path relative to the log folder</li>
+ * <li>LOG_PRUNE - patterns that are matched against directory names, matching directories are not entered</li>
+ * <li>LOG_MAX_DEPTH - the maximum number of directory levels to visit, 1 means only the log folder itself</li>
+ * </ul>
+ * Patterns are separated by <code>;</code> and use the {@link java.nio.file.FileSystem#getPathMatcher(String)}
+ * syntax. Patterns without a <code>glob:</code> or <code>regex:</code> prefix are treated as globs.
+ * <p>
+ * Rotated logs are supported as well: an included <code>.gz</code> file is a single compressed log, and every
+ * entry of an included <code>.zip</code> file whose name matches the include and exclude rules is a log of its own.
+ * Archives are sorted by their modification time, which is when they were rotated.
+ */
+public final class LogCatalog {
+
+    private static final int DEFAULT_MAX_DEPTH = 2;
+
+    private final Path root;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final List<PathMatcher> prunes;
+    private final int maxDepth;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<Entry> known = new HashSet<>();
+
+    /**
+     * A log file together with a snapshot of its attributes. Two entries are equal if they refer to
+     * the same log, regardless of the attributes.
+     */
+    public static final class Entry {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final Path path;
+        private final String archiveEntry;
+        private final FileTime creationTime;
+        private final long size;
+
+        Entry(Path path, String archiveEntry, FileTime creationTime, long size) {
+            this.path = path;
+            this.archiveEntry = archiveEntry;
+            this.creationTime = creationTime;
+            this.size = size;
+        }
+
+        /**
+         * @return the log file or the archive that contains the log
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the name of the log inside the zip archive or <code>null</code>
+         */
+        public String getArchiveEntry() {
+            return archiveEntry;
+        }
+
+        /**
+         * @return true if the log is compressed. Compressed logs can only be read as a stream.
+         */
+        public boolean isArchived() {
+            return archiveEntry != null || isGzip(path);
+        }
+
+        /**
+         * Opens the log for reading. Compressed logs are decompressed while they are read.
+         * @return the uncompressed log content
+         * @throws IOException if the log cannot be opened
+         */
+        public InputStream openStream() throws IOException {
+            if (archiveEntry != null) {
+                final ZipFile zipFile = new ZipFile(path.toFile());
+                ZipEntry zipEntry = zipFile.getEntry(archiveEntry);
+                if (zipEntry == null) {
+                    zipFile.close();
+                    throw new IOException(archiveEntry + " not found in " + path);
+                }
+                // closing the stream closes the archive
+                return new FilterInputStream(zipFile.getInputStream(zipEntry)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            zipFile.close();
+                        }
+                    }
+                };
+            }
+            InputStream stream = Files.newInputStream(path);
+            if (isGzip(path)) {
+                return new GZIPInputStream(stream, BUFFER_SIZE);
+            }
+            return stream;
+        }
+
+        /**
+         * @return the creation time at the time of discovery, or the modification time for archives
+         */
+        public FileTime getCreationTime() {
+            return creationTime;
+        }
+
+        /**
+         * @return the file size in bytes at the time of discovery. This is the compressed size for
+         * <code>.gz</code> files and the uncompressed size (or -1 if unknown) for zip entries.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return path.equals(other.path) && Objects.equals(archiveEntry, other.archiveEntry);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, archiveEntry);
+        }
+
+        @Override
+        public String toString() {
+            return archiveEntry != null ? path + "!" + archiveEntry : path.toString();
+        }
+    }
+
+    /**
+     * @param root       the log folder or <code>null</code>
+     * @param properties the properties that contain the discovery rules
+     */
+    public LogCatalog(Path root, GlobalProperties properties) {
+        this(root, properties.get(KEY.LOG_INCLUDE), properties.get(KEY.LOG_EXCLUDE),
+                properties.get(KEY.LOG_PRUNE), parseDepth(properties.get(KEY.LOG_MAX_DEPTH)));
+    }
+
+    /**
+     * @param root     the log folder or <code>null</code>
+     * @param includes the patterns of files to include
+     * @param excludes the patterns of files to exclude, even if included
+     * @param prunes   the patterns of directory names not to enter
+     * @param maxDepth the maximum number of directory levels to visit
+     */
+    public LogCatalog(Path root, String includes, String excludes, String prunes, int maxDepth) {
+        this.root = root;
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+        this.prunes = compile(prunes);
+        this.maxDepth = maxDepth;
+    }
+
+    private static int parseDepth(String value) {
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : DEFAULT_MAX_DEPTH;
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + KEY.LOG_MAX_DEPTH + ": " + value);
+            return DEFAULT_MAX_DEPTH;
+        }
+    }
+
+    private static List<PathMatcher> compile(String patterns) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        if (patterns == null) {
+            return matchers;
+        }
+        for (String pattern : patterns.split(";")) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            if (!pattern.startsWith("glob:") && !pattern.startsWith("regex:")) {
+                pattern = "glob:" + pattern;
+            }
+            try {
+                matchers.add(FileSystems.getDefault().getPathMatcher(pattern));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid log file pattern: " + pattern);
+            }
+        }
+        return matchers;
+    }
+
+    private static boolean isGzip(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".gz");
+    }
+
+    private static boolean isZip(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".zip");
+    }
+
+    private boolean isIncluded(Path path) {
+        return matchesAny(includes, path) && !matchesAny(excludes, path);
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the log folder or <code>null</code>
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @param file a file in the log folder
+     * @return true if the file is a log file according to the include and exclude rules
+     */
+    public boolean accepts(Path file) {
+        if (root == null || !file.startsWith(root)) {
+            return false;
+        }
+        Path relative = root.relativize(file);
+        if (relative.getNameCount() > maxDepth) {
+            return false;
+        }
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            if (matchesAny(prunes, relative.getName(i))) {
+                return false;
+            }
+        }
+        return isIncluded(relative);
+    }
+
+    /**
+     * @param dir a directory in the log folder
+     * @return true if log files in this directory can be part of the catalog
+     */
+    public boolean acceptsDirectory(Path dir) {
+        if (root == null || !dir.startsWith(root)) {
+            return false;
+        }
+        if (dir.equals(root)) {
+            return true;
+        }
+        Path relative = root.relativize(dir);
+        if (relative.getNameCount() >= maxDepth) {
+            return false;
+        }
+        for (int i = 0; i < relative.getNameCount(); i++) {
+            if (matchesAny(prunes, relative.getName(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the log folder and reports all log files. The attributes of each file are taken from the
+     * walk itself, so no additional file system calls are needed. This method does not modify the catalog.
+     * @param consumer receives every log file as soon as it was found
+     * @throws IOException if the log folder cannot be read
+     */
+    public void scan(final Consumer<Entry> consumer) throws IOException {
+        if (root == null) {
+            return;
+        }
+
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!dir.equals(root) && matchesAny(prunes, dir.getFileName())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!attrs.isDirectory() && isIncluded(root.relativize(file))) {
+                    report(file, attrs, consumer);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // unreadable files or folders are skipped
+                return FileVisitResult.CONTINUE;
+            }
+        };
+
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, visitor);
+    }
+
+    /**
+     * Reports the logs of an included file: the file itself or, for zip archives, the matching entries.
+     */
+    private void report(Path file, BasicFileAttributes attrs, Consumer<Entry> consumer) {
+        if (!isZip(file)) {
+            FileTime time = isGzip(file) ? attrs.lastModifiedTime() : attrs.creationTime();
+            consumer.accept(new Entry(file, null, time, attrs.size()));
+            return;
+        }
+        // only the central directory is read here, nothing is decompressed
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+                Path entryPath;
+                try {
+                    entryPath = file.getFileSystem().getPath(zipEntry.getName());
+                } catch (IllegalArgumentException e) {
+                    // the entry name is not a valid path on this platform
+                    continue;
+                }
+                // nested archives are not supported
+                if (isGzip(entryPath) || isZip(entryPath) || !isIncluded(entryPath)) {
+                    continue;
+                }
+                FileTime time = zipEntry.getLastModifiedTime() != null
+                        ? zipEntry.getLastModifiedTime()
+                        : attrs.lastModifiedTime();
+                consumer.accept(new Entry(file, zipEntry.getName(), time, zipEntry.getSize()));
+            }
+        } catch (IOException e) {
+            // corrupt or still being written - skipped
+            System.err.println("Could not read log archive " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the attributes of a single file, e.g. one that was created after the scan.
+     * @param file the log file or log archive
+     * @return the catalog entries of the file, usually one. Zip archives that cannot be read (yet) have none.
+     */
+    public List<Entry> snapshot(Path file) {
+        final List<Entry> result = new ArrayList<>();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // sort it as if it was created right now
+            result.add(new Entry(file, null, FileTime.fromMillis(System.currentTimeMillis()), 0));
+            return result;
+        }
+        report(file, attrs, new Consumer<Entry>() {
+            @Override
+            public void accept(Entry entry) {
+                result.add(entry);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Inserts the entry at its position, most recently created first. Entries with equal creation time
+     * keep their insertion order.
+     * @param entry the entry to insert
+     * @return the index of the inserted entry or -1 if the log is already part of the catalog
+     */
+    public int insert(Entry entry) {
+        if (!known.add(entry)) {
+            return -1;
+        }
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).getCreationTime().compareTo(entry.getCreationTime()) >= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        entries.add(low, entry);
+        return low;
+    }
+
+    /**
+     * @param file the log file
+     * @return the index of the (first) log of the file or -1 if it is not part of the catalog
+     */
+    public int indexOf(Path file) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getPath().equals(file)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the catalog entries, most recently created first
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return true if the catalog does not contain any log files
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+}
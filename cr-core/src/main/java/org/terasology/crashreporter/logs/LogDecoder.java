@@ -0,0 +1,252 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decodes a log stream block by block. Malformed input, e.g. a partial write at crash time or a log that
+ * was written in a different encoding, is replaced with U+FFFD instead of failing the whole log.
+ * <p>
+ * The charset is detected from the first block: a byte order mark wins, then UTF-8 if the block is valid UTF-8,
+ * and the fallback charset otherwise. Line breaks are normalized to <code>\n</code>, just like
+ * {@link javax.swing.text.DefaultEditorKit} does when it reads a document.
+ */
+public final class LogDecoder implements Closeable {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+    private final CharBuffer chars;
+
+    private boolean endOfInput;
+    private boolean finished;
+
+    /**
+     * Reads the first block of the stream to detect its charset.
+     * @param in       the log content
+     * @param fallback the charset to use if the content is neither marked nor valid UTF-8
+     * @throws IOException if the stream cannot be read
+     */
+    public LogDecoder(InputStream in, Charset fallback) throws IOException {
+        this.in = in;
+        bytes.flip();
+        try {
+            refill();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        charset = detect(bytes, fallback);
+        decoder = newDecoder(charset);
+        // one spare char for a carriage return that is held back until the next block
+        chars = CharBuffer.allocate((int) Math.ceil(BLOCK_SIZE * decoder.maxCharsPerByte()) + 1);
+    }
+
+    /**
+     * @param charset the charset
+     * @return a decoder that replaces malformed and unmappable input
+     */
+    public static CharsetDecoder newDecoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Detects the charset of a log from its first bytes.
+     * @param head     the first bytes, from position to limit. The position is moved past a byte order mark.
+     * @param fallback the charset to use if the bytes are neither marked nor valid UTF-8
+     * @return the detected charset
+     */
+    public static Charset detect(ByteBuffer head, Charset fallback) {
+        int pos = head.position();
+        if (startsWith(head, 0xEF, 0xBB, 0xBF)) {
+            head.position(pos + 3);
+            return StandardCharsets.UTF_8;
+        }
+        if (startsWith(head, 0xFE, 0xFF)) {
+            head.position(pos + 2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (startsWith(head, 0xFF, 0xFE)) {
+            head.position(pos + 2);
+            return StandardCharsets.UTF_16LE;
+        }
+
+        // a multi-byte sequence that is cut off at the end of the block is fine
+        CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder();
+        CoderResult result = strict.decode(head.duplicate(), CharBuffer.allocate(head.remaining()), false);
+        if (!result.isError()) {
+            return StandardCharsets.UTF_8;
+        }
+        if (!StandardCharsets.UTF_8.equals(fallback)) {
+            return fallback;
+        }
+        // not UTF-8 although the platform uses it - most likely a log from a Windows system
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Detects the charset of a log file from its first bytes.
+     * @param file     the log file
+     * @param fallback the charset to use if the file is neither marked nor valid UTF-8
+     * @return the detected charset
+     * @throws IOException if the file cannot be read
+     */
+    public static Charset detect(Path file, Charset fallback) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(BLOCK_SIZE);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // keep reading
+            }
+            head.flip();
+            return detect(head, fallback);
+        }
+    }
+
+    /**
+     * Decodes the end of a log. Older text is dropped while the log is read, so that a large log never
+     * has to fit on the heap as a whole.
+     * @param in       the log content
+     * @param fallback the charset to use if the content is neither marked nor valid UTF-8
+     * @param maxChars the maximum number of chars that are kept
+     * @return the decoded log, or its last complete lines and a note about the cut if it is longer
+     * @throws IOException if the stream cannot be read
+     */
+    public static String readTail(InputStream in, Charset fallback, int maxChars) throws IOException {
+        try (LogDecoder decoder = new LogDecoder(in, fallback)) {
+            StringBuilder builder = new StringBuilder();
+            long omitted = 0;
+            String block = decoder.read();
+            while (block != null) {
+                builder.append(block);
+                // cut in larger steps, so that the text is not moved for every block
+                if (builder.length() > 2 * maxChars) {
+                    omitted += cut(builder, builder.length() - maxChars);
+                }
+                block = decoder.read();
+            }
+            if (builder.length() > maxChars) {
+                omitted += cut(builder, builder.length() - maxChars);
+            }
+            if (omitted == 0) {
+                return builder.toString();
+            }
+            // start with a complete line
+            int lineEnd = builder.indexOf("\n");
+            if (lineEnd >= 0 && lineEnd < builder.length() - 1) {
+                omitted += cut(builder, lineEnd + 1);
+            }
+            // probably don't want to apply i18n to this
+            return "[The log is too large to be copied, the first " + omitted + " characters are omitted]\n" + builder;
+        }
+    }
+
+    private static int cut(StringBuilder builder, int count) {
+        builder.delete(0, count);
+        return count;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int... prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((buffer.get(buffer.position() + i) & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the detected charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the next decoded block or <code>null</code> at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    public String read() throws IOException {
+        while (!finished) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isUnderflow()) {
+                if (endOfInput) {
+                    decoder.flush(chars);
+                    finished = true;
+                } else {
+                    refill();
+                }
+            }
+            String block = drain();
+            if (block != null) {
+                return block;
+            }
+        }
+        return drain();
+    }
+
+    private void refill() throws IOException {
+        bytes.compact();
+        while (bytes.hasRemaining()) {
+            int count = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            if (count < 0) {
+                endOfInput = true;
+                break;
+            }
+            bytes.position(bytes.position() + count);
+        }
+        bytes.flip();
+    }
+
+    /**
+     * Takes the decoded chars out of the buffer and replaces CR LF with LF. A trailing CR is kept back
+     * until the next block, as its LF might be part of it.
+     */
+    private String drain() {
+        chars.flip();
+        char[] array = chars.array();
+        int end = chars.limit();
+        boolean holdBack = !finished && end > 0 && array[end - 1] == '\r';
+        if (holdBack) {
+            end--;
+        }
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (array[i] != '\r' || i + 1 >= end || array[i + 1] != '\n') {
+                array[count++] = array[i];
+            }
+        }
+        String block = count > 0 ? new String(array, 0, count) : null;
+        chars.clear();
+        if (holdBack) {
+            chars.put('\r');
+        }
+        return block;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
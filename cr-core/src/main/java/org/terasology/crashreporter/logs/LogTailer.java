@@ -0,0 +1,158 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a log file that is still being written. New bytes are read in large blocks from the
+ * current position and only complete lines are returned. The rest of the last line, including
+ * a multi-byte character that is cut off, is kept until the next read.
+ * <p>
+ * Log rotation is detected, too:
+ * <ul>
+ * <li>rename-rotate - the file was moved away and a new file was created in its place. This is detected by
+ * the file key (or the creation time, if the file system has no file keys). The rest of the old file is
+ * read and the new file is followed from its beginning.</li>
+ * <li>copy-truncate - the file was truncated in place. This is detected by a file size below the current
+ * position. The file is followed from its beginning again, see {@link #isTruncated()}.</li>
+ * </ul>
+ */
+public final class LogTailer implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path file;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars;
+    private final StringBuilder pending = new StringBuilder();
+
+    private FileChannel channel;
+    private Object fileIdentity;
+    private long position;
+    private boolean truncated;
+
+    /**
+     * @param file     the log file
+     * @param position the file position from which to follow the file, usually the end of what was read already
+     * @param charset  the charset of the log file
+     * @throws IOException if the file cannot be opened
+     */
+    public LogTailer(Path file, long position, Charset charset) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileIdentity = identify(file);
+        this.position = position;
+        this.decoder = LogDecoder.newDecoder(charset);
+        this.chars = CharBuffer.allocate((int) Math.ceil(BUFFER_SIZE * decoder.maxCharsPerByte()));
+    }
+
+    private static Object identify(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+    }
+
+    /**
+     * @return the file position up to which the file was read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return true if the file was truncated before the last call to {@link #readNewLines()}.
+     * Everything that was read before refers to content that no longer exists.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Reads everything that was written since the last call.
+     * @return the new complete lines with <code>\n</code> line breaks, or an empty string
+     * @throws IOException if the file cannot be read
+     */
+    public String readNewLines() throws IOException {
+        truncated = false;
+
+        Object identity;
+        try {
+            identity = identify(file);
+        } catch (NoSuchFileException e) {
+            // moved away, but not yet created again
+            identity = fileIdentity;
+        }
+
+        if (!identity.equals(fileIdentity)) {
+            // rename-rotate: finish the old file, then start over with the new one
+            FileChannel rotated = FileChannel.open(file, StandardOpenOption.READ);
+            readAvailable();
+            restart();
+            channel.close();
+            channel = rotated;
+            fileIdentity = identity;
+        } else if (channel.size() < position) {
+            // copy-truncate
+            restart();
+            truncated = true;
+        }
+        readAvailable();
+
+        int lineEnd = pending.lastIndexOf("\n");
+        if (lineEnd < 0) {
+            return "";
+        }
+        String lines = pending.substring(0, lineEnd + 1);
+        pending.delete(0, lineEnd + 1);
+        return lines.indexOf('\r') >= 0 ? lines.replace("\r\n", "\n") : lines;
+    }
+
+    private void readAvailable() throws IOException {
+        // the writer may keep writing - stop at the current size, the rest is read next time
+        long end = channel.size();
+        while (position < end) {
+            bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + end - position));
+            int count = channel.read(bytes, position);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+            bytes.flip();
+            decoder.decode(bytes, chars, false);
+            bytes.compact();
+            chars.flip();
+            pending.append(chars);
+            chars.clear();
+        }
+    }
+
+    /**
+     * Prepares reading a new file from its beginning. A line that the old file did not finish is completed.
+     */
+    private void restart() {
+        if (pending.length() > 0 && pending.charAt(pending.length() - 1) != '\n') {
+            pending.append('\n');
+        }
+        decoder.reset();
+        bytes.clear();
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
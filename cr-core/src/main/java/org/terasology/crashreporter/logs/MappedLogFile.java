@@ -0,0 +1,404 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only, memory-mapped view of a (potentially huge) log file.
+ * <p>
+ * Only a sparse line index is kept on the heap - the byte and char offset of every 64th line - so
+ * any line can be located in constant time and text is decoded only for the range that is actually
+ * requested. Swing documents address text with <code>int</code> offsets, so files that exceed that
+ * range are mapped from the tail (the most recent output) onwards.
+ * <p>
+ * A mapped file cannot be renamed or deleted on Windows, e.g. when the log is rotated, so the mapping
+ * should be released by {@link #close()} as soon as it is no longer shown.
+ */
+public final class MappedLogFile {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    private static final int CHECKPOINT_SHIFT = 6;
+    private static final int CHECKPOINT_MASK = (1 << CHECKPOINT_SHIFT) - 1;
+
+    /**
+     * Each char needs at least one byte, so this also bounds the number of chars (with headroom for appended text).
+     */
+    private static final long MAX_MAPPED_BYTES = 3L << 29;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final Charset charset;
+    private final boolean utf8;
+    private final ByteBuffer[] segments;
+    private final long mapStart;
+    private final long firstByte;
+    private final long endByte;
+
+    private long[] checkpointBytes = new long[16];
+    private int[] checkpointChars = new int[16];
+    private int lineCount;
+    private int charLength;
+    private int longestLine;
+
+    private boolean closed;
+
+    private int cursorLine = -1;
+    private long cursorByte;
+    private int cursorChar;
+
+    private MappedLogFile(Charset charset, ByteBuffer[] segments, long mapStart, long endByte) {
+        this.charset = charset;
+        this.utf8 = StandardCharsets.UTF_8.equals(charset);
+        this.segments = segments;
+        this.mapStart = mapStart;
+        this.endByte = endByte;
+
+        long pos = mapStart;
+        if (mapStart > 0) {
+            // skip the partial line that we cut into
+            while (pos < endByte && byteAt(pos++) != '\n') {
+                // keep going
+            }
+        } else if (utf8 && endByte >= 3 && (byteAt(0) & 0xFF) == 0xEF && (byteAt(1) & 0xFF) == 0xBB
+                && (byteAt(2) & 0xFF) == 0xBF) {
+            // the byte order mark is not part of the text
+            pos = 3;
+        }
+        this.firstByte = pos;
+        buildIndex();
+    }
+
+    /**
+     * @param charset the charset in question
+     * @return true if files in that charset can be mapped, i.e. the char offset of a position can be derived from its bytes alone
+     */
+    public static boolean isSupported(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) || (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1f);
+    }
+
+    /**
+     * Maps the given file and builds the line index. The file channel is released before this returns,
+     * the mapping stays valid until {@link #close()} is called.
+     * @param path the log file
+     * @param charset the charset of the log file, see {@link #isSupported(Charset)}
+     * @return the mapped log file
+     * @throws IOException if the file cannot be mapped
+     */
+    public static MappedLogFile open(Path path, Charset charset) throws IOException {
+        if (!isSupported(charset)) {
+            throw new IOException("Cannot map log files encoded in " + charset);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = Math.max(0, size - MAX_MAPPED_BYTES);
+            int count = (int) ((size - start + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long pos = start + ((long) i << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(SEGMENT_SIZE, size - pos));
+            }
+            return new MappedLogFile(charset, segments, start, size);
+        }
+    }
+
+    private void buildIndex() {
+        int line = 0;
+        int chars = 0;
+        int lineChars = 0;
+        checkpointBytes[0] = firstByte;
+        checkpointChars[0] = 0;
+
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer segment = segments[s];
+            long segmentStart = mapStart + ((long) s << SEGMENT_SHIFT);
+            int from = (int) Math.max(0, firstByte - segmentStart);
+            int limit = segment.limit();
+            for (int i = from; i < limit; i++) {
+                byte b = segment.get(i);
+                int width = charWidth(b);
+                chars += width;
+                lineChars += width;
+                if (b == '\n') {
+                    longestLine = Math.max(longestLine, lineChars - 1);
+                    lineChars = 0;
+                    line++;
+                    if ((line & CHECKPOINT_MASK) == 0) {
+                        int cp = line >>> CHECKPOINT_SHIFT;
+                        if (cp == checkpointBytes.length) {
+                            checkpointBytes = Arrays.copyOf(checkpointBytes, cp * 2);
+                            checkpointChars = Arrays.copyOf(checkpointChars, cp * 2);
+                        }
+                        checkpointBytes[cp] = segmentStart + i + 1;
+                        checkpointChars[cp] = chars;
+                    }
+                }
+            }
+        }
+
+        longestLine = Math.max(longestLine, lineChars);
+        lineCount = line + 1;
+        charLength = chars;
+    }
+
+    /**
+     * Every byte that starts a character counts as one char, four-byte UTF-8 sequences as two (a surrogate pair).
+     * {@link #decode} follows the exact same rule, also for malformed input, so that the offsets always match.
+     */
+    private int charWidth(byte b) {
+        if (!utf8) {
+            return 1;
+        }
+        if ((b & 0xC0) == 0x80) {
+            return 0;
+        }
+        return (b & 0xF8) == 0xF0 ? 2 : 1;
+    }
+
+    private byte byteAt(long pos) {
+        if (closed) {
+            // reads like empty lines, a view that is still attached must not touch unmapped memory
+            return '\n';
+        }
+        long rel = pos - mapStart;
+        return segments[(int) (rel >>> SEGMENT_SHIFT)].get((int) (rel & (SEGMENT_SIZE - 1)));
+    }
+
+    /**
+     * Unmaps the file right away instead of when the instance is garbage-collected.
+     * The text cannot be read anymore afterwards.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < segments.length; i++) {
+            unmap(segments[i]);
+            segments[i] = null;
+        }
+    }
+
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9 and later
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not supported by this JVM - the file is unmapped once the buffer is garbage-collected
+        }
+    }
+
+    /**
+     * @return the charset that is used to decode the file
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the number of chars in the mapped region
+     */
+    public int getLength() {
+        return charLength;
+    }
+
+    /**
+     * @return the number of lines, including the last (possibly empty) one
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the length of the longest line in chars
+     */
+    public int getLongestLine() {
+        return longestLine;
+    }
+
+    /**
+     * @return the file position after the last mapped byte
+     */
+    public long getEndPosition() {
+        return endByte;
+    }
+
+    /**
+     * @return true if the beginning of the file was skipped because it was too large to be mapped
+     */
+    public boolean isTruncated() {
+        return mapStart > 0;
+    }
+
+    /**
+     * @param line the line index
+     * @return the char offset of the first char in that line
+     */
+    public synchronized int getLineStartOffset(int line) {
+        seekLine(line);
+        return cursorChar;
+    }
+
+    /**
+     * @param offset the char offset
+     * @return the index of the line that contains the offset
+     */
+    public synchronized int getLineOfOffset(int offset) {
+        int cpCount = ((lineCount - 1) >>> CHECKPOINT_SHIFT) + 1;
+        int idx = Arrays.binarySearch(checkpointChars, 0, cpCount, offset);
+        int cp = idx >= 0 ? idx : -idx - 2;
+        seekLine(cp << CHECKPOINT_SHIFT);
+        while (cursorLine + 1 < lineCount) {
+            long prevByte = cursorByte;
+            int prevChar = cursorChar;
+            advanceLine();
+            if (cursorChar > offset) {
+                cursorByte = prevByte;
+                cursorChar = prevChar;
+                cursorLine--;
+                break;
+            }
+        }
+        return cursorLine;
+    }
+
+    private void seekLine(int line) {
+        if (cursorLine < 0 || line < cursorLine || (line >>> CHECKPOINT_SHIFT) != (cursorLine >>> CHECKPOINT_SHIFT)) {
+            int cp = line >>> CHECKPOINT_SHIFT;
+            cursorLine = cp << CHECKPOINT_SHIFT;
+            cursorByte = checkpointBytes[cp];
+            cursorChar = checkpointChars[cp];
+        }
+        while (cursorLine < line) {
+            advanceLine();
+        }
+    }
+
+    private void advanceLine() {
+        long pos = cursorByte;
+        int chars = 0;
+        while (pos < endByte) {
+            byte b = byteAt(pos++);
+            chars += charWidth(b);
+            if (b == '\n') {
+                break;
+            }
+        }
+        cursorByte = pos;
+        cursorChar += chars;
+        cursorLine++;
+    }
+
+    /**
+     * Decodes a range of chars.
+     * @param offset the char offset of the first char
+     * @param length the number of chars to decode
+     * @param dst the target array
+     * @param dstOffset the offset in the target array
+     */
+    public synchronized void decode(int offset, int length, char[] dst, int dstOffset) {
+        if (length == 0) {
+            return;
+        }
+        if (!utf8) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = byteAt(firstByte + offset + i);
+            }
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer out = CharBuffer.wrap(dst, dstOffset, length);
+            decoder.decode(ByteBuffer.wrap(bytes), out, true);
+            decoder.flush(out);
+            return;
+        }
+
+        getLineOfOffset(offset);
+        long pos = cursorByte;
+        int skip = offset - cursorChar;
+        int n = 0;
+        while (n < length && pos < endByte) {
+            int b = byteAt(pos++) & 0xFF;
+            if (b < 0x80) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    dst[dstOffset + n++] = (char) b;
+                }
+                continue;
+            }
+            if (b < 0xC0) {
+                // continuation byte - either consumed below or stray
+                continue;
+            }
+            int trail = b < 0xE0 ? 1 : b < 0xF0 ? 2 : b < 0xF8 ? 3 : 0;
+            int cp = trail == 0 ? -1 : b & (0x3F >> trail);
+            for (int i = 0; i < trail && cp >= 0; i++) {
+                long p = pos + i;
+                if (p >= endByte || (byteAt(p) & 0xC0) != 0x80) {
+                    cp = -1;
+                } else {
+                    cp = (cp << 6) | (byteAt(p) & 0x3F);
+                }
+            }
+            if (cp >= 0) {
+                pos += trail;
+            }
+
+            char first;
+            char second = 0;
+            if (trail == 3) {
+                boolean valid = cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT && cp <= Character.MAX_CODE_POINT;
+                first = valid ? Character.highSurrogate(cp) : REPLACEMENT;
+                second = valid ? Character.lowSurrogate(cp) : REPLACEMENT;
+            } else {
+                // overlong encodings are rejected - they could otherwise smuggle in line breaks
+                boolean valid = cp >= (trail == 1 ? 0x80 : 0x800);
+                first = valid ? (char) cp : REPLACEMENT;
+            }
+
+            if (skip > 0) {
+                skip--;
+            } else {
+                dst[dstOffset + n++] = first;
+            }
+            if (trail == 3 && n < length) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    dst[dstOffset + n++] = second;
+                }
+            }
+        }
+    }
+}
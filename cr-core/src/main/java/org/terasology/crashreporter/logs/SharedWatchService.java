@@ -0,0 +1,158 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.logs;
+
+import com.sun.nio.file.SensitivityWatchEventModifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single {@link WatchService} that is shared by all reporter windows of the JVM. Its events are
+ * dispatched to the registered listeners by one daemon thread.
+ * <p>
+ * Registering the same directory twice yields the same {@link WatchKey}, so the key is only cancelled
+ * once the last registration for its directory was closed.
+ */
+public final class SharedWatchService {
+
+    private static SharedWatchService instance;
+
+    private final WatchService watchService;
+    private final boolean nativeService;
+    private final Map<WatchKey, List<Registration>> registrations = new HashMap<>();
+
+    /**
+     * Receives the events of a registered directory. It is called from the dispatcher thread and must return quickly.
+     */
+    public interface Listener {
+
+        /**
+         * @param directory the registered directory
+         * @param events    the events, possibly including {@link StandardWatchEventKinds#OVERFLOW}
+         * @param valid     false if the directory is no longer watched, e.g. because it was deleted
+         */
+        void onEvents(Path directory, List<WatchEvent<?>> events, boolean valid);
+    }
+
+    /**
+     * The registration of a listener for a directory. Closing it stops the events.
+     */
+    public final class Registration implements Closeable {
+        private final WatchKey key;
+        private final Listener listener;
+
+        Registration(WatchKey key, Listener listener) {
+            this.key = key;
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() {
+            unregister(this);
+        }
+    }
+
+    private SharedWatchService() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        // the JDK falls back to polling every few seconds if the platform has no watch service
+        nativeService = !watchService.getClass().getSimpleName().startsWith("Polling");
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "Log Watcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * @return the shared instance, created on first use
+     * @throws IOException if the platform does not support watch services
+     */
+    public static synchronized SharedWatchService getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SharedWatchService();
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if the platform reports changes natively, false if the JDK polls by itself
+     */
+    public boolean isNative() {
+        return nativeService;
+    }
+
+    /**
+     * Watches a directory for created and modified files.
+     * @param directory the directory
+     * @param listener  receives the events
+     * @return the registration that must be closed when the events are no longer needed
+     * @throws IOException if the directory cannot be watched
+     */
+    public Registration register(Path directory, Listener listener) throws IOException {
+        synchronized (registrations) {
+            // registered under the lock, so that the key cannot be cancelled by the last unregister in the meantime
+            WatchKey key = directory.register(watchService, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE}, SensitivityWatchEventModifier.HIGH);
+            Registration registration = new Registration(key, listener);
+            List<Registration> list = registrations.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                registrations.put(key, list);
+            }
+            list.add(registration);
+            return registration;
+        }
+    }
+
+    private void unregister(Registration registration) {
+        synchronized (registrations) {
+            List<Registration> list = registrations.get(registration.key);
+            if (list != null && list.remove(registration) && list.isEmpty()) {
+                registrations.remove(registration.key);
+                registration.key.cancel();
+            }
+        }
+    }
+
+    private void dispatch() {
+        for (;;) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            List<WatchEvent<?>> events = key.pollEvents();
+            boolean valid = key.reset();
+            List<Registration> listeners;
+            synchronized (registrations) {
+                List<Registration> list = valid ? registrations.get(key) : registrations.remove(key);
+                listeners = list != null ? new ArrayList<>(list) : new ArrayList<Registration>();
+            }
+            for (Registration registration : listeners) {
+                try {
+                    registration.listener.onEvents((Path) key.watchable(), events, valid);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+/**
+ * Copies a text that is in memory anyway, e.g. an edited log or a spooled report, in blocks.
+ */
+final class CharSequenceReader implements TextSource {
+
+    private final CharSequence text;
+
+    CharSequenceReader(CharSequence text) {
+        this.text = text;
+    }
+
+    @Override
+    public long getLength() {
+        return text.length();
+    }
+
+    @Override
+    public int read(long offset, char[] block) {
+        if (offset >= text.length()) {
+            return 0;
+        }
+        int start = (int) offset;
+        int count = Math.min(block.length - 1, text.length() - start);
+        for (int i = 0; i < count; i++) {
+            block[i] = text.charAt(start + i);
+        }
+        if (Character.isHighSurrogate(block[count - 1]) && start + count < text.length()) {
+            // do not split a surrogate pair, the reader could not encode its first half alone
+            block[count] = text.charAt(start + count);
+            count++;
+        }
+        return count;
+    }
+}
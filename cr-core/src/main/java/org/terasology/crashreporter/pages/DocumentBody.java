@@ -0,0 +1,95 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import javax.swing.text.Document;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A multipart body that encodes the text of a {@link Document} as UTF-8 while it is written.
+ * The text is copied in small blocks by a {@link DocumentReader}, so neither the
+ * complete text nor its encoded bytes are ever held in memory. Other texts, e.g. log files,
+ * are read in the same way, see {@link TextSource}.
+ * <p>
+ * The text is sent up to the length that the document had when the body was created.
+ */
+public class DocumentBody extends AbstractContentBody {
+
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    private final TextSource reader;
+    private final String filename;
+
+    /**
+     * @param document the document to send
+     * @param filename the file name that is announced to the server
+     */
+    public DocumentBody(Document document, String filename) {
+        this(new DocumentReader(document), filename);
+    }
+
+    /**
+     * @param text     the text to send, e.g. a log file
+     * @param filename the file name that is announced to the server
+     */
+    DocumentBody(TextSource text, String filename) {
+        super(ContentType.create("text/plain", StandardCharsets.UTF_8));
+        this.reader = text;
+        this.filename = filename;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return "binary";
+    }
+
+    @Override
+    public long getContentLength() {
+        // unknown until encoded
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        char[] block = new char[BLOCK_SIZE];
+        Writer writer = new OutputStreamWriter(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the rest of the multipart message is still to be written
+                flush();
+            }
+        }, StandardCharsets.UTF_8);
+
+        long offset = 0;
+        while (offset < reader.getLength()) {
+            // copied under the read lock, but the lock is not held while writing to the network
+            int count = reader.read(offset, block);
+            if (count == 0) {
+                // the text was shortened in the meantime
+                break;
+            }
+            writer.write(block, 0, count);
+            offset += count;
+        }
+        writer.close();
+    }
+}
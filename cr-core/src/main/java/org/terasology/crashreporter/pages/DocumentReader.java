@@ -0,0 +1,67 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.io.IOException;
+
+/**
+ * Copies the text of a {@link Document} in blocks from a background thread. Each block is copied under
+ * the read lock of the document, but the lock is not held in between, so the document stays responsive.
+ * <p>
+ * Only the text up to the length that the document had when the reader was created is read.
+ * Surrogate pairs are never split between two blocks.
+ */
+final class DocumentReader implements TextSource {
+
+    private final Document document;
+    private final int length;
+    private final Segment segment = new Segment();
+
+    DocumentReader(Document document) {
+        this.document = document;
+        this.length = document.getLength();
+        this.segment.setPartialReturn(true);
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public int read(long position, final char[] block) throws IOException {
+        final int offset = (int) Math.min(position, length);
+        final int[] count = new int[1];
+        final BadLocationException[] error = new BadLocationException[1];
+        document.render(new Runnable() {
+            @Override
+            public void run() {
+                int end = Math.min(length, document.getLength());
+                if (offset >= end) {
+                    return;
+                }
+                try {
+                    document.getText(offset, Math.min(block.length - 1, end - offset), segment);
+                    System.arraycopy(segment.array, segment.offset, block, 0, segment.count);
+                    count[0] = segment.count;
+                    int next = offset + count[0];
+                    if (Character.isHighSurrogate(block[count[0] - 1]) && next < end) {
+                        // do not split a surrogate pair, the reader could not encode its first half alone
+                        document.getText(next, 1, segment);
+                        block[count[0]++] = segment.array[segment.offset];
+                    }
+                } catch (BadLocationException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+        return count[0];
+    }
+}
@@ -9,36 +9,32 @@ import org.terasology.crashreporter.CrashReporter;
 import org.terasology.crashreporter.GlobalProperties;
 import org.terasology.crashreporter.GlobalProperties.KEY;
 import org.terasology.crashreporter.I18N;
+import org.terasology.crashreporter.ReportSession;
 import org.terasology.crashreporter.Resources;
+import org.terasology.crashreporter.logs.LogCatalog;
+import org.terasology.crashreporter.upload.Attachment;
 
 import javax.swing.BorderFactory;
 import javax.swing.Icon;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
-import javax.swing.JTextArea;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.io.StringWriter;
-import java.nio.charset.Charset;
-import java.nio.file.FileVisitOption;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
+import java.io.Closeable;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
-import java.util.Comparator;
-import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Shows the error message plus stack trace.
@@ -47,22 +43,36 @@ public class ErrorMessagePanel extends JPanel {
 
     private static final long serialVersionUID = 8449689452512733452L;
 
+    private static final long DEFAULT_MEMORY_BUDGET_MB = 128;
+    private static final long DEFAULT_UPDATE_RATE = 10;
+    private static final long DEFAULT_FOLLOW_MAX_LINES = 100000;
+    private static final long DEFAULT_FOLLOW_MAX_MB = 16;
+    private static final long DEFAULT_UPLOAD_MAX_LOGS = 3;
+
     private final JTabbedPane tabPane;
-    private final List<JTextArea> textAreas = Lists.newArrayList();
-    private final List<Path> logFiles;
+    private final List<LogTab> logTabs = Lists.newArrayList();
+    private final LogCatalog logCatalog;
+    private final LogDocumentCache documentCache;
+    private final FollowLimits followLimits;
+    private final Set<Path> modifiedLogs = new LinkedHashSet<>();
+    private final Timer updateTimer;
+    private final long maxUploadLogs;
 
     private final LogUpdateWorker logUpdateWorker;
+    private final LogDiscoveryWorker logDiscoveryWorker;
 
-    // logReaders is the list of each log file's reader
-    private final List<RandomAccessFile> logReaders = Lists.newArrayList();
+    private Component centerComponent;
+    private boolean discoveryFinished;
 
     /**
      * @param exception     the exception to display
      * @param logFileFolder the folder that contains the relevant log files
      * @param properties    the properties for this dialog wizard
      * @param mode          crash reporter, issue reporter or feedback window
+     * @param session       the session that releases the workers and open log files when the window is closed
      */
-    public ErrorMessagePanel(GlobalProperties properties, Throwable exception, Path logFileFolder, CrashReporter.MODE mode) {
+    public ErrorMessagePanel(GlobalProperties properties, Throwable exception, Path logFileFolder, CrashReporter.MODE mode,
+                             ReportSession session) {
 
         JPanel mainPanel = this;
         mainPanel.setLayout(new BorderLayout(0, 5));
@@ -97,36 +107,27 @@ public class ErrorMessagePanel extends JPanel {
 
         mainPanel.add(message, BorderLayout.NORTH);
 
-        logFiles = findLogs(logFileFolder);
-        sortLogFiles(logFiles);
+        logCatalog = new LogCatalog(logFileFolder, properties);
+        maxUploadLogs = Math.max(1, properties.getLong(KEY.UPLOAD_MAX_LOGS, DEFAULT_UPLOAD_MAX_LOGS));
+        documentCache = new LogDocumentCache(properties.getLong(KEY.LOG_MEMORY_BUDGET_MB, DEFAULT_MEMORY_BUDGET_MB) << 20);
+        long followLines = properties.getLong(KEY.LOG_FOLLOW_MAX_LINES, DEFAULT_FOLLOW_MAX_LINES);
+        long followChars = (properties.getLong(KEY.LOG_FOLLOW_MAX_MB, DEFAULT_FOLLOW_MAX_MB) << 20) / 2;
+        followLimits = new FollowLimits((int) Math.min(followLines, Integer.MAX_VALUE),
+                (int) Math.min(followChars, Integer.MAX_VALUE));
         tabPane = new JTabbedPane();
-
-        if (!logFiles.isEmpty()) {
-            for (Path logFile : logFiles) {
-                final String logFileContent = readLogFileContent(logFile);
-                JTextArea logArea = new JTextArea();
-                logArea.setText(logFileContent);
-                String tabName = logFileFolder.relativize(logFile).toString();
-                tabPane.addTab(tabName, new JScrollPane(logArea));
-                textAreas.add(logArea);
-
-                // Add reader of each log file in logReaders
-                try {
-                    File file = logFile.toFile();
-                    RandomAccessFile logReader = new RandomAccessFile(file, "r");
-                    logReader.seek(file.length());
-                    logReaders.add(logReader);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        // Log content is read only when a tab is selected for the first time
+        tabPane.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                // the selection jumps around while tabs are inserted during discovery
+                if (discoveryFinished) {
+                    loadSelectedTab();
                 }
             }
-            add(tabPane, BorderLayout.CENTER);
-        } else {
-            JLabel missingFilesLabel = new JLabel(I18N.getMessage("noLogFiles"), SwingConstants.CENTER);
-            missingFilesLabel.setFont(missingFilesLabel.getFont().deriveFont(Font.BOLD, 14f));
-            missingFilesLabel.setBorder(BorderFactory.createEtchedBorder());
-            add(missingFilesLabel, BorderLayout.CENTER);
-        }
+        });
+
+        // Tabs are added while the log folder is searched in the background
+        setCenterComponent(new JLabel(I18N.getMessage("searchingLogs"), SwingConstants.CENTER));
 
         String readablePath = logFileFolder != null
                 ? logFileFolder.toAbsolutePath().normalize().toString()
@@ -144,43 +145,99 @@ public class ErrorMessagePanel extends JPanel {
         JLabel editHintLabel = new JLabel("<html>" + loc + "<br/><br/>" + editMessage + "</html>");
         add(editHintLabel, BorderLayout.SOUTH);
 
+        // New lines are collected and shown at most LOG_UPDATE_RATE times per second
+        long updateRate = Math.max(1, properties.getLong(KEY.LOG_UPDATE_RATE, DEFAULT_UPDATE_RATE));
+        updateTimer = new Timer((int) (1000 / updateRate), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updateLogs();
+            }
+        });
+        updateTimer.setRepeats(false);
+
         // Initialize log folder watching
-        logUpdateWorker = new LogUpdateWorker(logFileFolder);
+        logUpdateWorker = new LogUpdateWorker(logCatalog);
         PropertyChangeListener logChangeListener = new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
                 if (evt.getPropertyName() == LogUpdateWorker.CREATED) {
                     Path newLogPath = (Path)evt.getNewValue();
-                    addNewTab(logFileFolder, newLogPath);
+                    if (logCatalog.indexOf(newLogPath) >= 0) {
+                        // created again after it was rotated - the tab follows the new file
+                        scheduleUpdate(newLogPath);
+                    } else if (logCatalog.accepts(newLogPath)) {
+                        for (LogCatalog.Entry entry : logCatalog.snapshot(newLogPath)) {
+                            addNewTab(entry);
+                        }
+                    }
                 }
                 else if (evt.getPropertyName() == LogUpdateWorker.MODIFIED) {
                     Path changedLogPath = (Path)evt.getNewValue();
-                    updateLog(changedLogPath);
+                    scheduleUpdate(changedLogPath);
                 }
             }
         };
         logUpdateWorker.addPropertyChangeListener(logChangeListener);
         logUpdateWorker.execute();
-    }
 
-    private static void sortLogFiles(List<Path> files) {
-        files.sort(new Comparator<Path>() {
+        logDiscoveryWorker = new LogDiscoveryWorker(logCatalog);
+        logDiscoveryWorker.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (evt.getPropertyName() == LogDiscoveryWorker.FOUND) {
+                    addNewTab((LogCatalog.Entry) evt.getNewValue());
+                } else if (evt.getPropertyName() == LogDiscoveryWorker.FINISHED) {
+                    discoveryFinished();
+                }
+            }
+        });
+        logDiscoveryWorker.execute();
 
+        session.cancelOnClose(logUpdateWorker);
+        session.cancelOnClose(logDiscoveryWorker);
+        session.add(new Closeable() {
             @Override
-            public int compare(Path p0, Path p1) {
-                try {
-                    BasicFileAttributes attr0 = Files.readAttributes(p0, BasicFileAttributes.class);
-                    BasicFileAttributes attr1 = Files.readAttributes(p1, BasicFileAttributes.class);
-                    FileTime time0 = attr0.creationTime();
-                    FileTime time1 = attr1.creationTime();
-                    return time0.compareTo(time1);
-                } catch (Exception e) {
-                    // ignore silently
-                    return 0;
+            public void close() {
+                updateTimer.stop();
+                for (LogTab logTab : logTabs) {
+                    logTab.close();
                 }
             }
+        });
+    }
+
+    private void setCenterComponent(Component component) {
+        if (centerComponent != null) {
+            remove(centerComponent);
+        }
+        centerComponent = component;
+        add(component, BorderLayout.CENTER);
+        revalidate();
+        repaint();
+    }
 
-        }.reversed());  // invert sort order
+    private void loadSelectedTab() {
+        int idx = tabPane.getSelectedIndex();
+        if (idx >= 0) {
+            logTabs.get(idx).load();
+        }
+    }
+
+    private void discoveryFinished() {
+        discoveryFinished = true;
+        if (logTabs.isEmpty()) {
+            JLabel missingFilesLabel = new JLabel(I18N.getMessage("noLogFiles"), SwingConstants.CENTER);
+            missingFilesLabel.setFont(missingFilesLabel.getFont().deriveFont(Font.BOLD, 14f));
+            missingFilesLabel.setBorder(BorderFactory.createEtchedBorder());
+            setCenterComponent(missingFilesLabel);
+        } else {
+            // show (and load) the most recent log file
+            tabPane.setSelectedIndex(0);
+            loadSelectedTab();
+            if (isShowing()) {
+                firePropertyChange("pageComplete", false, true);
+            }
+        }
     }
 
     @Override
@@ -191,51 +248,29 @@ public class ErrorMessagePanel extends JPanel {
             return;
         }
 
-        if (logFiles.isEmpty()) {
+        if (!discoveryFinished || logCatalog.isEmpty()) {
             firePropertyChange("pageComplete", true, false);
         }
     }
 
     /**
-     * @param logFileFolder
-     * @return
+     * Every log costs at least one paste, and Pastebin allows only a few a day, so rotated logs are
+     * usually left out.
+     * @return the log of the selected tab and the most recently created other logs, up to <code>UPLOAD_MAX_LOGS</code>.
+     * The content is read when it is uploaded. The attachments must be closed afterwards.
      */
-    private List<Path> findLogs(Path logFileFolder) {
-        // JAVA8: this should work, too
-        // Files.walk(logFileFolder).filter(path -> path.toString().endsWith(".log")).collect(Collectors.toList());
-
-        final List<Path> results = Lists.newArrayList();
-
-        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-
-                if (file.toString().endsWith(".log")) {
-                    results.add(file);
-                }
-
-                return FileVisitResult.CONTINUE;
-            }
-        };
-
-        if (logFileFolder != null) {
-            try {
-                // maxDepth == 1 means that only the current folder is searched
-                Files.walkFileTree(logFileFolder, EnumSet.noneOf(FileVisitOption.class), 2, visitor);
-            } catch (IOException e) {
-                e.printStackTrace();
+    public List<Attachment> getLogs() {
+        List<Attachment> logs = Lists.newArrayList();
+        int selected = tabPane.getSelectedIndex();
+        if (selected >= 0) {
+            logs.add(logTabs.get(selected).createAttachment(tabPane.getTitleAt(selected)));
+        }
+        for (int i = 0; i < logTabs.size() && logs.size() < maxUploadLogs; i++) {
+            if (i != selected) {
+                logs.add(logTabs.get(i).createAttachment(tabPane.getTitleAt(i)));
             }
         }
-
-        return results;
-    }
-
-    /**
-     * @return the (edited) log file contents
-     */
-    public String getLog() {
-        int idx = tabPane.getSelectedIndex();
-        return idx >= 0 ? textAreas.get(idx).getText() : "";
+        return logs;
     }
 
     /**
@@ -243,58 +278,47 @@ public class ErrorMessagePanel extends JPanel {
      */
     public Path getLogFile() {
         int idx = tabPane.getSelectedIndex();
-        return idx >= 0 ? logFiles.get(idx) : null;
+        return idx >= 0 ? logTabs.get(idx).getLogFile() : null;
     }
 
-    private static String readLogFileContent(Path logFile) {
-        StringBuilder builder = new StringBuilder();
-
-        if (logFile != null) {
-            try {
-                List<String> lines = Files.readAllLines(logFile, Charset.defaultCharset());
-                for (String line : lines) {
-                    builder.append(line);
-                    builder.append(System.lineSeparator());
-                }
-            } catch (Exception e) { // we catch all here, because we want to continue execution in all cases
-                e.printStackTrace(System.err);
+    /**
+     * Add a new Tab when there is a new log file
+     * @param entry the catalog entry of the new log file
+     */
+    private void addNewTab(LogCatalog.Entry entry) {
+        int index = logCatalog.insert(entry);
+        if (index < 0) {
+            // found by both the discovery and the folder watcher
+            return;
+        }
 
-                StringWriter sw = new StringWriter();
-                builder.append("Could not open log file " + logFile.toString() + System.lineSeparator());
-                e.printStackTrace(new PrintWriter(sw));
-                builder.append(sw.toString());
-            }
+        String tabName = logCatalog.getRoot().relativize(entry.getPath()).toString();
+        if (entry.getArchiveEntry() != null) {
+            tabName += "!" + entry.getArchiveEntry();
         }
+        LogTab logTab = new LogTab(entry, documentCache, followLimits);
+        logTabs.add(index, logTab);
+        tabPane.insertTab(tabName, null, logTab.getComponent(), null, index);
+        if (centerComponent != tabPane) {
+            setCenterComponent(tabPane);
+        }
+    }
 
-        return builder.toString();
+    private void scheduleUpdate(Path changedLogPath) {
+        modifiedLogs.add(changedLogPath);
+        if (!updateTimer.isRunning()) {
+            updateTimer.start();
+        }
     }
 
     /**
-     * Add a new Tab when there is a new log file
-     * @param logFileFolder log folder
-     * @param newLogPath    path of the new log file
+     * Appends the new lines of all log files that were modified since the last update
      */
-    private void addNewTab(Path logFileFolder, Path newLogPath) {
-        logFiles.add(newLogPath);
-        sortLogFiles(logFiles);
-        int index = logFiles.indexOf(newLogPath);
-
-        String tabName = logFileFolder.relativize(newLogPath).toString();
-        final String logFileContent = readLogFileContent(newLogPath);
-        JTextArea logArea = new JTextArea();
-        logArea.setText(logFileContent);
-        textAreas.add(index,logArea);
-        tabPane.insertTab(tabName, null, new JScrollPane(logArea), null, index);
-        tabPane.updateUI();
-
-        File file = newLogPath.toFile();
-        try {
-            RandomAccessFile logReader = new RandomAccessFile(file, "r");
-            logReader.seek(file.length());
-            logReaders.add(index, logReader);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void updateLogs() {
+        for (Path changedLogPath : modifiedLogs) {
+            updateLog(changedLogPath);
         }
+        modifiedLogs.clear();
     }
 
     /**
@@ -302,21 +326,14 @@ public class ErrorMessagePanel extends JPanel {
      * @param changedLogPath path of the changed log file
      */
     private void updateLog(Path changedLogPath) {
-        int index = logFiles.indexOf(changedLogPath);
+        int index = logCatalog.indexOf(changedLogPath);
         if (index != -1) {
-            RandomAccessFile logReader = logReaders.get(index);
-            JTextArea jTextArea = textAreas.get(index);
-            try {
-                String line = logReader.readLine();
-                while (line != null) {
-                    jTextArea.append(line);
-                    jTextArea.append(System.lineSeparator());
-                    line = logReader.readLine();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+            logTabs.get(index).appendNewLines();
+        } else if (logCatalog.accepts(changedLogPath)) {
+            // a zip archive that could not be read when it was created, because it was still being written
+            for (LogCatalog.Entry entry : logCatalog.snapshot(changedLogPath)) {
+                addNewTab(entry);
             }
         }
-        this.updateUI();
     }
 }
@@ -0,0 +1,37 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+/**
+ * Limits the amount of content that a followed log tab keeps in memory in addition to what was loaded.
+ * Older lines are dropped from the view once either limit is exceeded. They are still part of the log file.
+ */
+final class FollowLimits {
+
+    private final int maxLines;
+    private final int maxChars;
+
+    /**
+     * @param maxLines the maximum number of appended lines
+     * @param maxChars the maximum number of appended characters
+     */
+    FollowLimits(int maxLines, int maxChars) {
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @return the maximum number of appended lines
+     */
+    int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * @return the maximum number of appended characters
+     */
+    int getMaxChars() {
+        return maxChars;
+    }
+}
@@ -0,0 +1,137 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Uploads a report to the server that is configured by <code>UPLOAD_HOSTED_URL</code>, see {@link HostedUploadRunnable}.
+ * A single log without a message of the user is uploaded on its own. Otherwise every log is uploaded
+ * on its own and an index links them, see {@link ReportUploadRunnable}.
+ * <p>
+ * Logs are read straight from their file and are stored under their name. A log that was uploaded before
+ * is not sent again, and of a log that only grew since its last upload, e.g. for a follow-up issue report,
+ * only the appended part is sent. Failed uploads are resumed where they stopped.
+ * <p>
+ * This does not depend on Swing, so it is also used to upload reports without a window.
+ */
+public class HostedReportUpload implements Callable<URL>, ReportSpool.Content {
+
+    private static final long DEFAULT_RETRIES = 5;
+
+    private static final long DEFAULT_PARALLEL_PARTS = 4;
+
+    private final CloseableHttpClient client;
+    private final URI postUri;
+    private final String userInfo;
+    private final List<Attachment> logs;
+    private final UploadCache cache;
+    private final RetryingCallable.Listener listener;
+    private final UploadMonitor monitor;
+    private final int maxRetries;
+    private final int parallelParts;
+
+    /**
+     * @param properties the properties that configure the upload
+     * @param client     the (shared) client that is used for the upload
+     * @param postUri    the address of the server, see {@link #getServerUri(GlobalProperties)}
+     * @param userInfo   the message of the user, may be empty
+     * @param logs       the logs of the report
+     * @param cache      the last uploads of the logs or <code>null</code> to always send them completely
+     * @param listener   is informed when a failed upload is retried
+     * @param monitor    counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    public HostedReportUpload(GlobalProperties properties, CloseableHttpClient client, URI postUri, String userInfo,
+                              List<Attachment> logs, UploadCache cache, RetryingCallable.Listener listener,
+                              UploadMonitor monitor) {
+        this.client = client;
+        this.postUri = postUri;
+        this.userInfo = userInfo;
+        this.logs = logs;
+        this.cache = cache;
+        this.listener = listener;
+        this.monitor = monitor;
+        this.maxRetries = (int) Math.max(0, properties.getLong(KEY.UPLOAD_RETRIES, DEFAULT_RETRIES));
+        this.parallelParts = (int) Math.max(1, properties.getLong(KEY.UPLOAD_PARALLEL_PARTS, DEFAULT_PARALLEL_PARTS));
+    }
+
+    /**
+     * @param properties the properties
+     * @return the address of the server or <code>null</code> if none is configured
+     */
+    public static URI getServerUri(GlobalProperties properties) {
+        String url = properties.get(KEY.UPLOAD_HOSTED_URL);
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return new URI(url.trim());
+        } catch (URISyntaxException e) {
+            System.err.println("Invalid UPLOAD_HOSTED_URL: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the address of the server, which is also the target of the spooled report
+     */
+    public String getTarget() {
+        return postUri.toString();
+    }
+
+    @Override
+    public URL call() throws Exception {
+        if (logs.size() == 1 && userInfo.isEmpty()) {
+            return createUpload(logs.get(0), monitor).call();
+        }
+        ReportUploadRunnable.PartUploader uploader = new ReportUploadRunnable.PartUploader() {
+            @Override
+            public Callable<URL> create(Attachment attachment, UploadMonitor partMonitor) {
+                return createUpload(attachment, partMonitor);
+            }
+        };
+        return new ReportUploadRunnable(PastebinUploadRunnable.TITLE, userInfo, logs, uploader,
+                monitor, parallelParts).call();
+    }
+
+    /**
+     * Writes all logs in a single text, which is spooled if the upload fails.
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        PastebinReportUpload.writeText(userInfo, logs, out);
+    }
+
+    private Callable<URL> createUpload(final Attachment log, final UploadMonitor uploadMonitor) {
+        return new Callable<URL>() {
+            @Override
+            public URL call() throws Exception {
+                Path file = log.getFile();
+                TextSource text = file != null
+                        ? new Utf8FileReader(file, log.getFileOffset(), log.getFileLength())
+                        : new CharSequenceReader(log.getContent());
+                HostedUploadRunnable upload = new HostedUploadRunnable(client, postUri, text, log.getName(), cache,
+                        uploadMonitor);
+                // transient failures are retried, and resumed where the server stopped receiving the log
+                return new RetryingCallable<>(upload, maxRetries, listener).call();
+            }
+        };
+    }
+}
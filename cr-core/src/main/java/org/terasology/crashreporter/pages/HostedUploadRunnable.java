@@ -3,54 +3,242 @@
 
 package org.terasology.crashreporter.pages;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.mime.FormBodyPart;
 import org.apache.http.entity.mime.FormBodyPartBuilder;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.ByteArrayBody;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
+import org.terasology.crashreporter.upload.ContentHash;
+import org.terasology.crashreporter.upload.HttpStatusException;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
 
+import javax.swing.text.Document;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class HostedUploadRunnable implements Callable<URL> {
-    private final String content;
+/**
+ * Uploads the log file to a server. The log is sent in checksummed chunks (see {@link ResumableUpload}),
+ * so calling this again after a failure continues the upload where it stopped.
+ * <p>
+ * Before that, the {@link UploadCache} is checked for an earlier upload of a log with the same SHA-256 hash to the
+ * same server, and then the server is asked whether it has seen such a log already:
+ * <code>GET &lt;uri&gt;/known/&lt;hash&gt;</code> answers <code>200 OK</code> with the URL of that log, which is then reused.
+ * <p>
+ * If the beginning of the log was uploaded to the same server before, e.g. for an earlier report in the same session,
+ * only the lines that were added since are sent, together with a reference to the earlier upload. The server
+ * reassembles the complete log, see {@link ResumableUpload}.
+ * <p>
+ * Servers that do not support resumable uploads receive the log as multipart form data in a single request.
+ * The log text is then streamed from its document and gzip-compressed on the fly, so the upload
+ * costs neither heap nor bandwidth in the size of the log.
+ * <p>
+ * Servers that do not accept compressed requests answer with <code>415 Unsupported Media Type</code>
+ * (see RFC 7694). The log is then sent again without compression, and later uploads to that server
+ * are not compressed at all.
+ */
+public class HostedUploadRunnable implements Callable<URL>, RetryingCallable.Resumable {
+
+    private static final Set<URI> UNCOMPRESSED_HOSTS = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+    private static final Set<URI> SINGLE_REQUEST_HOSTS = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+
+    private final CloseableHttpClient client;
+    private final UploadMonitor monitor;
+    private final TextSource content;
+    private final String fileName;
     private final URI postUri;
+    private final ResumableUpload resumableUpload;
+    private final UploadCache cache;
+    private String contentHash;
+    private long contentLength;
+
+    /**
+     * @param client   the (shared) client that is used for the upload
+     * @param postUri  the address to post the log file to
+     * @param content  the (edited) log file contents
+     * @param fileName the name of the log file
+     * @param monitor  counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    public HostedUploadRunnable(CloseableHttpClient client, URI postUri, Document content, String fileName,
+                                UploadMonitor monitor) {
+        this(client, postUri, content, fileName, null, monitor);
+    }
+
+    /**
+     * @param client   the (shared) client that is used for the upload
+     * @param postUri  the address to post the log file to
+     * @param content  the (edited) log file contents
+     * @param fileName the name of the log file
+     * @param cache    remembers the last upload of the log, or <code>null</code> to always send the complete log
+     * @param monitor  counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    public HostedUploadRunnable(CloseableHttpClient client, URI postUri, Document content, String fileName,
+                                UploadCache cache, UploadMonitor monitor) {
+        this(client, postUri, new DocumentReader(content), fileName, cache, monitor);
+    }
 
-    public HostedUploadRunnable(URI postUri, String content) {
+    /**
+     * @param client   the (shared) client that is used for the upload
+     * @param postUri  the address to post the log file to
+     * @param content  the log file contents, e.g. read from the log file
+     * @param fileName the name of the log file
+     * @param cache    remembers the last upload of the log, or <code>null</code> to always send the complete log
+     * @param monitor  counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    HostedUploadRunnable(CloseableHttpClient client, URI postUri, TextSource content, String fileName,
+                         UploadCache cache, UploadMonitor monitor) {
+        this.client = client;
+        this.cache = cache;
+        this.monitor = monitor;
         this.postUri = postUri;
         this.content = content;
+        this.fileName = fileName;
+        this.resumableUpload = new ResumableUpload(client, postUri, content, fileName, monitor);
+    }
+
+    @Override
+    public long getProgress() {
+        return resumableUpload.getOffset();
     }
 
     @Override
     public URL call() throws IOException {
-        try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
+        if (contentHash == null) {
+            contentHash = hashContent();
+            resumableUpload.setContentHash(contentHash);
+            URL known = cache != null ? cache.get(postUri.toString(), contentHash) : null;
+            if (known == null) {
+                known = lookUp(contentHash);
+            }
+            if (known != null) {
+                remember(known);
+                return known;
+            }
+        }
+        URL url = null;
+        if (!SINGLE_REQUEST_HOSTS.contains(postUri)) {
+            url = uploadInChunks();
+            if (url == null) {
+                SINGLE_REQUEST_HOSTS.add(postUri);
+            }
+        }
+        if (url == null) {
+            url = uploadInOneRequest();
+        }
+        remember(url);
+        return url;
+    }
+
+    private void remember(URL url) {
+        if (cache != null) {
+            cache.put(postUri.toString(), contentHash, url);
+            cache.putLastUpload(postUri.toString(), fileName, new UploadCache.LastUpload(contentLength, contentHash, url));
+        }
+    }
 
-            byte[] data = content.getBytes(StandardCharsets.UTF_8);
+    /**
+     * Also checks whether the log only grew since its last upload.
+     */
+    private String hashContent() throws IOException {
+        UploadCache.LastUpload lastUpload = cache != null ? cache.getLastUpload(postUri.toString(), fileName) : null;
+        ContentHash hash = new ContentHash(lastUpload != null ? lastUpload.getLength() : -1);
+        char[] block = new char[32 * 1024];
+        long offset = 0;
+        while (true) {
+            int count = content.read(offset, block);
+            if (count == 0) {
+                break;
+            }
+            hash.update(block, 0, count);
+            offset += count;
+        }
+        contentLength = hash.getLength();
+        monitor.setTotal(contentLength);
+        if (lastUpload != null && contentLength > lastUpload.getLength() && lastUpload.getHash().equals(hash.getPrefixHash())) {
+            resumableUpload.setBase(lastUpload, hash.getPrefixChars());
+        }
+        return hash.finish();
+    }
+
+    /**
+     * @return the URL of a log with the same content that the server already has, or <code>null</code>
+     */
+    private URL lookUp(String hash) throws IOException {
+        URI uri = URI.create(postUri.toString().replaceAll("/+$", "") + "/known/" + hash);
+        try (CloseableHttpResponse response = monitor.execute(client, new HttpGet(uri))) {
+            HttpEntity entity = response.getEntity();
+            String responseText = entity != null ? EntityUtils.toString(entity, "UTF-8").trim() : "";
+            // also servers that do not support this answer "404 Not Found"
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || responseText.isEmpty()) {
+                return null;
+            }
+            return new URL(responseText);
+        }
+    }
+
+    private URL uploadInChunks() throws IOException {
+        while (true) {
+            boolean compress = !UNCOMPRESSED_HOSTS.contains(postUri);
+            try {
+                return resumableUpload.upload(compress);
+            } catch (HttpStatusException e) {
+                if (!compress || e.getStatusCode() != HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE) {
+                    throw e;
+                }
+                UNCOMPRESSED_HOSTS.add(postUri);
+            }
+        }
+    }
+
+    private URL uploadInOneRequest() throws IOException {
+        boolean compress = !UNCOMPRESSED_HOSTS.contains(postUri);
+        while (true) {
             HttpPost post = new HttpPost(postUri);
-            ByteArrayBody body = new ByteArrayBody(data, "terasology.log");
-            FormBodyPart bodyPart = FormBodyPartBuilder.create().setBody(body).setName("logFile").build();
-            HttpEntity entity = MultipartEntityBuilder.create().addPart(bodyPart).build();
-            post.setEntity(entity);
-            try (CloseableHttpResponse response = client.execute(post)) {
+            post.setHeader("Upload-Hash", "sha-256 " + contentHash);
+            post.setEntity(createEntity(compress));
+            try (CloseableHttpResponse response = monitor.execute(client, post)) {
                 int code = response.getStatusLine().getStatusCode();
                 String responseText = EntityUtils.toString(response.getEntity(), "UTF-8");
+                if (compress && code == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && !acceptsGzip(response)) {
+                    UNCOMPRESSED_HOSTS.add(postUri);
+                    compress = false;
+                    continue;
+                }
                 if (code != HttpStatus.SC_OK) {
-//                    System.err.println("ERROR: HTTP status code: " + code);
-//                    System.err.println(responseText);
-//                    throw new IOException("HTTP status code: " + code);
-                    throw new IOException(responseText);
+                    throw new HttpStatusException(response, responseText);
                 }
                 return new URL(responseText);
             }
         }
     }
+
+    private HttpEntity createEntity(boolean compress) {
+        DocumentBody body = new DocumentBody(content, fileName);
+        FormBodyPart bodyPart = FormBodyPartBuilder.create().setBody(body).setName("logFile").build();
+        HttpEntity entity = monitor.track(MultipartEntityBuilder.create().addPart(bodyPart).build(), 0);
+        // sets "Content-Encoding: gzip" and sends the compressed entity in chunks
+        return compress ? new GzipCompressingEntity(entity) : entity;
+    }
+
+    /**
+     * @return true if the rejection of the request was not caused by its content encoding
+     */
+    private static boolean acceptsGzip(CloseableHttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.ACCEPT_ENCODING);
+        return header != null && header.getValue().toLowerCase().contains("gzip");
+    }
 }
@@ -0,0 +1,59 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.terasology.crashreporter.logs.LogCatalog;
+
+import javax.swing.SwingWorker;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * LogDiscoveryWorker searches the log folder for log files, according to the rules of a {@link LogCatalog}.
+ * It walks the file tree in the background thread, see {@code doInBackground} method.
+ * Every log file is reported in EDT thread as soon as it is found, see {@code process} method.
+ * The end of the search is reported after the last log file, see {@code done} method.
+ */
+public class LogDiscoveryWorker extends SwingWorker<Void, LogCatalog.Entry> {
+
+    public static final String FOUND = "FOUND_LOG";
+    public static final String FINISHED = "DISCOVERY_FINISHED";
+
+    private final LogCatalog catalog;
+
+    /**
+     * @param catalog the catalog that defines which files are logs. It is not modified by this worker.
+     */
+    public LogDiscoveryWorker(LogCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        try {
+            catalog.scan(new Consumer<LogCatalog.Entry>() {
+                @Override
+                public void accept(LogCatalog.Entry entry) {
+                    publish(entry);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    protected void process(List<LogCatalog.Entry> chunks) {
+        for (LogCatalog.Entry entry : chunks) {
+            firePropertyChange(FOUND, null, entry);
+        }
+    }
+
+    @Override
+    protected void done() {
+        firePropertyChange(FINISHED, false, true);
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Keeps the documents of loaded log tabs within a memory budget. Tabs are tracked in
+ * least-recently-used order and the oldest ones are unloaded until the budget is met again.
+ * Tabs with user edits are pinned and never unloaded, nor is the one that was used last.
+ */
+class LogDocumentCache {
+
+    private final long budget;
+    private final Set<LogTab> tabs = new LinkedHashSet<>();
+
+    /**
+     * @param budget the memory budget in bytes
+     */
+    LogDocumentCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Marks the given tab as most recently used and enforces the budget.
+     * @param tab the tab that was selected or loaded
+     */
+    void touch(LogTab tab) {
+        tabs.remove(tab);
+        tabs.add(tab);
+        enforceBudget();
+    }
+
+    /**
+     * Unloads least recently used tabs until the total size is within budget again.
+     * This is also called when the size of a tab has changed.
+     */
+    void enforceBudget() {
+        long total = 0;
+        for (LogTab tab : tabs) {
+            total += tab.getMemoryFootprint();
+        }
+
+        Iterator<LogTab> it = tabs.iterator();
+        while (total > budget && it.hasNext()) {
+            LogTab tab = it.next();
+            if (!it.hasNext()) {
+                // never unload the most recently used tab
+                break;
+            }
+            if (tab.isLoaded() && !tab.isEdited()) {
+                total -= tab.getMemoryFootprint();
+                tab.unload();
+                it.remove();
+            }
+        }
+    }
+}
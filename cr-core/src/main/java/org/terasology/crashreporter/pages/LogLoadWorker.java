@@ -0,0 +1,192 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import com.google.common.io.ByteStreams;
+
+import org.terasology.crashreporter.logs.LogCatalog;
+import org.terasology.crashreporter.logs.LogDecoder;
+import org.terasology.crashreporter.logs.MappedLogFile;
+
+import javax.swing.SwingWorker;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * LogLoadWorker reads a log file in the background thread, see {@code doInBackground} method.
+ * Small files are decoded in chunks that are fired to the EDT while reading, see {@code process} method.
+ * Large files are memory-mapped and indexed instead and returned as the result.
+ * The charset is detected from the beginning of the file, see {@link LogDecoder}.
+ * Completion is announced in EDT thread after the last chunk, see {@code done} method.
+ * <p>
+ * Only the bytes that exist when loading starts are read, see {@link #getEndPosition()}.
+ * <p>
+ * Compressed logs are decompressed as a stream into a temporary file first, which is then read like
+ * any other log file. This way large archives can be memory-mapped, too, instead of being inflated on the heap.
+ * The temporary file can be passed to later workers for the same log, see {@link #getLogFile()}.
+ */
+public class LogLoadWorker extends SwingWorker<MappedLogFile, String> {
+
+    public static final String CHUNK = "LOADED_CHUNK";
+    public static final String LOADED = "LOADED_LOG";
+
+    /**
+     * Log files of at least this size are memory-mapped instead of being read into a text area
+     */
+    private static final long MAPPED_VIEW_THRESHOLD = 16L << 20;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final LogCatalog.Entry entry;
+    private volatile Charset charset;
+    private volatile Path logFile;
+    private volatile long endPosition;
+    private volatile boolean inflated;
+    private volatile MappedLogFile mappedFile;
+
+    /**
+     * @param entry        the log to read
+     * @param inflatedFile the decompressed content of a compressed log from an earlier worker or <code>null</code>
+     * @param fallback     the charset to use if the log is neither marked nor valid UTF-8
+     */
+    public LogLoadWorker(LogCatalog.Entry entry, Path inflatedFile, Charset fallback) {
+        this.entry = entry;
+        this.charset = fallback;
+        this.logFile = entry.isArchived() ? inflatedFile : entry.getPath();
+        this.endPosition = logFile != null ? logFile.toFile().length() : 0;
+    }
+
+    /**
+     * @return the file that is read - the log file itself or the decompressed content of a compressed log.
+     * For compressed logs, this is available only after loading has finished.
+     */
+    public Path getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * @return the detected charset of the log, available after loading has finished
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the file position up to which the file is read
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    @Override
+    protected MappedLogFile doInBackground() throws Exception {
+        if (logFile == null) {
+            logFile = inflate();
+            inflated = true;
+            endPosition = logFile.toFile().length();
+        }
+
+        if (endPosition >= MAPPED_VIEW_THRESHOLD) {
+            Charset detected = LogDecoder.detect(logFile, charset);
+            if (MappedLogFile.isSupported(detected)) {
+                charset = detected;
+                mappedFile = MappedLogFile.open(logFile, detected);
+                if (isCancelled()) {
+                    // done() may have run already and missed the mapping
+                    mappedFile.close();
+                    throw new CancellationException();
+                }
+                return mappedFile;
+            }
+        }
+
+        InputStream stream = ByteStreams.limit(Files.newInputStream(logFile), endPosition);
+        try (LogDecoder decoder = new LogDecoder(stream, charset)) {
+            charset = decoder.getCharset();
+            String chunk = decoder.read();
+            while (chunk != null && !isCancelled()) {
+                publish(chunk);
+                chunk = decoder.read();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws CancellationException if the worker was cancelled, the partial file is deleted then
+     */
+    private Path inflate() throws IOException {
+        Path file = Files.createTempFile("crashreporter-", ".log");
+        file.toFile().deleteOnExit();
+        try (InputStream in = entry.openStream();
+             OutputStream out = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int count = in.read(buffer);
+            while (count >= 0 && !isCancelled()) {
+                out.write(buffer, 0, count);
+                count = in.read(buffer);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        if (isCancelled()) {
+            Files.deleteIfExists(file);
+            throw new CancellationException();
+        }
+        return file;
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        for (String chunk : chunks) {
+            firePropertyChange(CHUNK, null, chunk);
+        }
+    }
+
+    @Override
+    protected void done() {
+        MappedLogFile mappedFile = null;
+        try {
+            mappedFile = get();
+        } catch (CancellationException e) {
+            // nobody learns about a file that was inflated or mapped by this worker
+            if (mappedFile != null) {
+                mappedFile.close();
+            }
+            if (inflated) {
+                deleteQuietly(logFile);
+            }
+            return;
+        } catch (InterruptedException | ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            cause.printStackTrace(System.err);
+
+            StringWriter sw = new StringWriter();
+            sw.append("Could not open log file " + entry + System.lineSeparator());
+            cause.printStackTrace(new PrintWriter(sw));
+            firePropertyChange(CHUNK, null, sw.toString());
+        }
+        // done() is submitted after all pending process() calls, so this is really the last event
+        firePropertyChange(LOADED, null, mappedFile);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // still deleted on exit
+            e.printStackTrace();
+        }
+    }
+}
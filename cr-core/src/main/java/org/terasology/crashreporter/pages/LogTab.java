@@ -0,0 +1,543 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.terasology.crashreporter.I18N;
+import org.terasology.crashreporter.logs.LogCatalog;
+import org.terasology.crashreporter.logs.LogDecoder;
+import org.terasology.crashreporter.logs.LogTailer;
+import org.terasology.crashreporter.logs.MappedLogFile;
+import org.terasology.crashreporter.upload.Attachment;
+
+import javax.swing.AbstractAction;
+import javax.swing.JEditorPane;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
+import javax.swing.SwingConstants;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * A single log file tab of the {@link ErrorMessagePanel}. The tab shows a placeholder
+ * until it is loaded, which happens when it is selected for the first time.
+ * Loading happens in the background and the content is shown while it is being read.
+ * Loaded tabs can be unloaded again by the {@link LogDocumentCache} unless they were edited.
+ * Compressed logs are decompressed once and kept in a temporary file, they are not tailed.
+ * <p>
+ * Followed logs keep only a window of the appended lines in memory, see {@link FollowLimits}.
+ * Older lines are dropped from text areas, while memory-mapped logs are mapped again to include
+ * the appended part. The complete log can always be read from disk.
+ * <p>
+ * A mapping is released as soon as it is replaced or the tab is unloaded or closed, so that the
+ * game can still rotate its log on Windows while the window is open.
+ */
+class LogTab {
+
+    /**
+     * The text of memory-mapped logs and of logs that are read from disk is cut to this many chars,
+     * a copy of the complete log might not fit on the heap
+     */
+    private static final int MAX_MAPPED_TEXT_LENGTH = 8 << 20;
+
+    private final LogCatalog.Entry entry;
+    private final LogDocumentCache cache;
+    private final FollowLimits followLimits;
+    private final JLabel placeholder;
+    private final JScrollPane scrollPane;
+
+    private LogLoadWorker loader;
+    private LogLoadWorker reloader;
+    private JTextComponent view;
+    private MappedLogFile mappedFile;
+    private boolean loaded;
+    private boolean edited;
+    private boolean appending;
+    private boolean trimmed;
+    private int windowLines;
+    private int windowChars;
+    private LogTailer tailer;
+    private Path inflatedFile;
+
+    /**
+     * @param entry the log to show
+     * @param cache the cache that keeps track of loaded tabs
+     * @param followLimits the limits for lines that are appended while the log is followed
+     */
+    LogTab(LogCatalog.Entry entry, LogDocumentCache cache, FollowLimits followLimits) {
+        this.entry = entry;
+        this.cache = cache;
+        this.followLimits = followLimits;
+        this.placeholder = new JLabel(I18N.getMessage("loadingLog"), SwingConstants.CENTER);
+        this.scrollPane = new JScrollPane(placeholder);
+    }
+
+    /**
+     * @return the log file or the archive that contains the log
+     */
+    Path getLogFile() {
+        return entry.getPath();
+    }
+
+    /**
+     * Logs that were not edited are uploaded from their file, so their text is never copied.
+     * Compressed logs are read from the decompressed file of the tab or from the archive,
+     * see {@link Attachment#getFile()}.
+     * @param name the name of the log in the report
+     * @return the log for the report, the text of the tab is only read if the log was edited
+     */
+    Attachment createAttachment(String name) {
+        Supplier<String> text = new Supplier<String>() {
+            @Override
+            public String get() {
+                return getText();
+            }
+        };
+        if (edited) {
+            return new Attachment(name, text);
+        }
+        Path file = entry.isArchived() ? inflatedFile : entry.getPath();
+        if (file != null) {
+            try {
+                // lines that are written from now on are not part of the report
+                return new Attachment(name, text, file, 0, Files.size(file));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new Attachment(name, text, new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws IOException {
+                return entry.openStream();
+            }
+        });
+    }
+
+    /**
+     * @return the component that is shown in the tab pane
+     */
+    JScrollPane getComponent() {
+        return scrollPane;
+    }
+
+    /**
+     * @return true if the log content was loaded completely
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return true if the user has modified the log content
+     */
+    boolean isEdited() {
+        return edited;
+    }
+
+    /**
+     * @return the approximate number of bytes that the log content occupies on the heap
+     */
+    long getMemoryFootprint() {
+        if (view == null) {
+            return 0;
+        }
+        Document doc = view.getDocument();
+        if (doc instanceof MappedLogDocument) {
+            // only appended text lives on the heap, the rest is mapped
+            return 2L * (doc.getLength() - ((MappedLogDocument) doc).getFile().getLength());
+        }
+        return 2L * doc.getLength();
+    }
+
+    /**
+     * Starts reading the log file in the background. Does nothing if loading was started already.
+     */
+    void load() {
+        if (loader != null) {
+            cache.touch(this);
+            return;
+        }
+
+        final JTextArea logArea = new JTextArea();
+        logArea.setEditable(false);
+        installGotoLine(logArea);
+
+        loader = new LogLoadWorker(entry, inflatedFile, Charset.defaultCharset());
+        loader.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (evt.getPropertyName() == LogLoadWorker.CHUNK) {
+                    if (view == null) {
+                        view = logArea;
+                        scrollPane.setViewportView(logArea);
+                    }
+                    logArea.append((String) evt.getNewValue());
+                } else if (evt.getPropertyName() == LogLoadWorker.LOADED) {
+                    loadingFinished(logArea, (MappedLogFile) evt.getNewValue());
+                }
+            }
+        });
+        loader.execute();
+    }
+
+    /**
+     * Maps the log file again in the background, so that the appended lines are mapped, too.
+     * The current view is kept until the new one is ready.
+     */
+    private void reload() {
+        if (reloader != null) {
+            return;
+        }
+        final LogLoadWorker worker = new LogLoadWorker(entry, inflatedFile, Charset.defaultCharset());
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (evt.getPropertyName() != LogLoadWorker.LOADED) {
+                    return;
+                }
+                MappedLogFile newFile = (MappedLogFile) evt.getNewValue();
+                if (reloader != worker) {
+                    // the tab was unloaded in the meantime
+                    if (newFile != null) {
+                        newFile.close();
+                    }
+                    return;
+                }
+                reloader = null;
+                if (newFile != null) {
+                    closeTailer();
+                    loader = worker;
+                    loadingFinished(null, newFile);
+                }
+            }
+        });
+        reloader = worker;
+        worker.execute();
+    }
+
+    private void loadingFinished(JTextArea logArea, MappedLogFile newFile) {
+        long tailPosition = loader.getEndPosition();
+        if (newFile != null) {
+            view = createMappedView(newFile);
+            tailPosition = newFile.getEndPosition();
+        } else {
+            view = logArea;
+            logArea.setEditable(true);
+            logArea.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    edited |= !appending;
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                    edited |= !appending;
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                    // attribute changes only
+                }
+            });
+        }
+        scrollPane.setViewportView(view);
+        // the previous view of a reloaded log is no longer shown
+        closeMappedFile();
+        mappedFile = newFile;
+        loaded = true;
+        trimmed = false;
+        Document doc = view.getDocument();
+        windowLines = doc.getDefaultRootElement().getElementCount() + followLimits.getMaxLines();
+        windowChars = doc.getLength() + followLimits.getMaxChars();
+
+        if (entry.isArchived()) {
+            // keep the decompressed content for the next time the tab is loaded, archives do not change
+            inflatedFile = loader.getLogFile();
+        } else {
+            // Tail the file from here on - everything before is already part of the view
+            try {
+                tailer = new LogTailer(entry.getPath(), tailPosition, loader.getCharset());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        cache.touch(this);
+    }
+
+    /**
+     * Drops the log content, so that it is read from disk again when the tab is loaded the next time.
+     */
+    void unload() {
+        if (!loaded) {
+            return;
+        }
+        closeTailer();
+        if (reloader != null) {
+            reloader.cancel(true);
+            reloader = null;
+        }
+        loader = null;
+        view = null;
+        loaded = false;
+        scrollPane.setViewportView(placeholder);
+        closeMappedFile();
+    }
+
+    /**
+     * Releases the open files and the temporary files of this tab. The tab cannot be used afterwards.
+     */
+    void close() {
+        if (loader != null) {
+            loader.cancel(true);
+        }
+        if (reloader != null) {
+            reloader.cancel(true);
+        }
+        closeTailer();
+        view = null;
+        scrollPane.setViewportView(placeholder);
+        closeMappedFile();
+        if (inflatedFile != null) {
+            try {
+                Files.deleteIfExists(inflatedFile);
+            } catch (IOException e) {
+                // still mapped on some platforms - it is deleted on exit then
+                e.printStackTrace();
+            }
+            inflatedFile = null;
+        }
+    }
+
+    private void closeMappedFile() {
+        if (mappedFile != null) {
+            mappedFile.close();
+            mappedFile = null;
+        }
+    }
+
+    private void closeTailer() {
+        if (tailer != null) {
+            try {
+                tailer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tailer = null;
+        }
+    }
+
+    /**
+     * @return the (edited) log file contents, read from disk if the tab is not loaded completely or
+     * if lines were dropped while following the log. Only the end of large logs is returned.
+     */
+    String getText() {
+        if (!loaded || (trimmed && !edited)) {
+            return readLogFileContent(entry);
+        }
+        Document doc = view.getDocument();
+        if (doc instanceof MappedLogDocument && doc.getLength() > MAX_MAPPED_TEXT_LENGTH) {
+            return getTail(doc);
+        }
+        return view.getText();
+    }
+
+    /**
+     * @return the last lines of the document up to {@link #MAX_MAPPED_TEXT_LENGTH} chars and a note about the cut
+     */
+    private static String getTail(Document doc) {
+        Element root = doc.getDefaultRootElement();
+        int start = doc.getLength() - MAX_MAPPED_TEXT_LENGTH;
+        Element line = root.getElement(root.getElementIndex(start));
+        if (line.getStartOffset() < start && line.getEndOffset() < doc.getLength()) {
+            start = line.getEndOffset();
+        }
+        try {
+            // probably don't want to apply i18n to this
+            return "[The log is too large to be copied, the first " + start + " characters are omitted]\n"
+                    + doc.getText(start, doc.getLength() - start);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Appends the complete lines that were written to the log file since it was last read.
+     * Unloaded tabs are skipped - they will read the complete file once they are loaded.
+     */
+    void appendNewLines() {
+        if (!loaded || tailer == null) {
+            return;
+        }
+        Document doc = view.getDocument();
+        boolean remap = false;
+        appending = true;
+        try {
+            String lines = tailer.readNewLines();
+            if (tailer.isTruncated() && doc instanceof MappedLogDocument) {
+                // the mapped content no longer exists and must not be accessed anymore
+                remap = true;
+            } else if (!lines.isEmpty()) {
+                doc.insertString(doc.getLength(), lines, null);
+                if (doc instanceof MappedLogDocument) {
+                    if (doc.getDefaultRootElement().getElementCount() > windowLines || doc.getLength() > windowChars) {
+                        reload();
+                    }
+                } else if (!edited) {
+                    trimToWindow(doc);
+                }
+            }
+        } catch (IOException | BadLocationException e) {
+            e.printStackTrace();
+        } finally {
+            appending = false;
+        }
+        if (remap) {
+            unload();
+            load();
+            return;
+        }
+        cache.enforceBudget();
+    }
+
+    /**
+     * Removes the oldest lines until the document fits into the follow window again.
+     */
+    private void trimToWindow(Document doc) throws BadLocationException {
+        Element root = doc.getDefaultRootElement();
+        int offset = 0;
+        int excessLines = root.getElementCount() - windowLines;
+        if (excessLines > 0) {
+            offset = root.getElement(excessLines).getStartOffset();
+        }
+        int excessChars = doc.getLength() - windowChars;
+        if (excessChars > offset) {
+            // cut at the beginning of the next line
+            Element line = root.getElement(root.getElementIndex(excessChars));
+            offset = line.getStartOffset() < excessChars ? line.getEndOffset() : line.getStartOffset();
+        }
+        offset = Math.min(offset, doc.getLength());
+        if (offset > 0) {
+            doc.remove(0, offset);
+            trimmed = true;
+        }
+    }
+
+    /**
+     * Creates the read-only viewer for large, memory-mapped log files. Only the visible part is decoded.
+     * @param mappedFile the mapped log file
+     * @return the text component that shows the log file
+     */
+    private static JTextComponent createMappedView(MappedLogFile mappedFile) {
+        MappedLogDocument doc = new MappedLogDocument(mappedFile);
+        JEditorPane viewer = new JEditorPane();
+        viewer.setEditorKit(new LogViewerKit());
+        viewer.setDocument(doc);
+        Font font = UIManager.getFont("TextArea.font");
+        if (font != null) {
+            viewer.setFont(font);
+        }
+        viewer.setEditable(false);
+        viewer.setCaretPosition(doc.getLength());
+        scrollToCaretWhenShown(viewer);
+        installGotoLine(viewer);
+        return viewer;
+    }
+
+    /**
+     * Scrolls to the caret (the tail of the log) once the component has been laid out for the first time.
+     */
+    private static void scrollToCaretWhenShown(final JTextComponent view) {
+        view.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                view.removeComponentListener(this);
+                scrollToOffset(view, view.getCaretPosition());
+            }
+        });
+    }
+
+    private static void scrollToOffset(JTextComponent view, int offset) {
+        try {
+            Rectangle rect = view.modelToView(offset);
+            if (rect != null) {
+                view.scrollRectToVisible(rect);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Binds Ctrl+G to a "go to line" prompt. Looking up the line is a constant-time operation for mapped logs.
+     */
+    private static void installGotoLine(final JTextComponent view) {
+        view.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK), "gotoLine");
+        view.getActionMap().put("gotoLine", new AbstractAction() {
+
+            private static final long serialVersionUID = -3640183432146478245L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Element root = view.getDocument().getDefaultRootElement();
+                String input = JOptionPane.showInputDialog(view, I18N.getMessage("gotoLine", root.getElementCount()));
+                if (input == null) {
+                    return;
+                }
+                try {
+                    int line = Integer.parseInt(input.trim()) - 1;
+                    line = Math.max(0, Math.min(line, root.getElementCount() - 1));
+                    int offset = root.getElement(line).getStartOffset();
+                    view.setCaretPosition(offset);
+                    scrollToOffset(view, offset);
+                } catch (NumberFormatException ex) {
+                    // not a number - ignore
+                }
+            }
+        });
+    }
+
+    private static String readLogFileContent(LogCatalog.Entry entry) {
+        StringBuilder builder = new StringBuilder();
+
+        if (entry != null) {
+            try {
+                return LogDecoder.readTail(entry.openStream(), Charset.defaultCharset(), MAX_MAPPED_TEXT_LENGTH);
+            } catch (Exception e) { // we catch all here, because we want to continue execution in all cases
+                e.printStackTrace(System.err);
+
+                StringWriter sw = new StringWriter();
+                builder.append("Could not open log file " + entry + System.lineSeparator());
+                e.printStackTrace(new PrintWriter(sw));
+                builder.append(sw.toString());
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -2,37 +2,108 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.crashreporter.pages;
 
-import com.sun.nio.file.SensitivityWatchEventModifier;
+import org.terasology.crashreporter.logs.DirectoryPoller;
+import org.terasology.crashreporter.logs.LogCatalog;
+import org.terasology.crashreporter.logs.SharedWatchService;
 
 import javax.swing.SwingWorker;
 import java.io.IOException;
-import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributes;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * LogUpdateWorker watches log folder change.
  * It watches change in the background thread, see {@code doInBackground} method.
  * It processes event in EDT thread, see {@code process} method.
+ * Modifications of the same file are reported once per batch of events.
+ * <p>
+ * Subdirectories are watched as well, as far as the {@link LogCatalog} would search them.
+ * Directories that are created later are registered, too, and files in them are reported as created.
+ * Directories themselves are never reported.
+ * <p>
+ * Each directory is either watched or polled, see {@link DirectoryPoller}. Polling is used if the platform
+ * has no native watch service (e.g. on macOS), for network and FUSE file systems that may not deliver
+ * any events, and for directories that cannot be registered. If events were lost, all files of the
+ * directory are reported as created again.
+ * <p>
+ * Watched directories are registered with the {@link SharedWatchService}, so no watch service is created
+ * per worker. The registrations are closed when the worker ends, e.g. when it is cancelled.
  */
-public class LogUpdateWorker extends SwingWorker<Void, WatchEvent<Path>> {
+public class LogUpdateWorker extends SwingWorker<Void, LogUpdateWorker.Change> {
 
     public static final String CREATED = "CREATE_LOG";
     public static final String MODIFIED = "MODIFIED_LOG";
 
-    private Path directory;
-    private WatchService watchService;
+    /**
+     * File system types (or their prefixes) that are polled, as changes may not be reported for them
+     */
+    private static final String[] POLLED_FILE_SYSTEMS = {
+        "nfs", "cifs", "smb", "afpfs", "webdav", "davfs", "fuse", "osxfuse", "macfuse", "sshfs", "9p", "afs", "ceph"
+    };
 
-    public LogUpdateWorker(Path directory) {
-        try {
+    private final LogCatalog catalog;
+    private final Map<Path, SharedWatchService.Registration> directories = new HashMap<>();
+    private final DirectoryPoller poller = new DirectoryPoller();
+    private final BlockingQueue<WatchBatch> batches = new LinkedBlockingQueue<>();
+    private final SharedWatchService.Listener watchListener = new SharedWatchService.Listener() {
+        @Override
+        public void onEvents(Path directory, List<WatchEvent<?>> events, boolean valid) {
+            batches.add(new WatchBatch(directory, events, valid));
+        }
+    };
+    private SharedWatchService watchService;
+
+    /**
+     * A file that was created or modified
+     */
+    static final class Change {
+        private final boolean created;
+        private final Path file;
+
+        Change(boolean created, Path file) {
+            this.created = created;
+            this.file = file;
+        }
+    }
+
+    /**
+     * The events of a watched directory, handed over from the dispatcher thread of the shared watch service
+     */
+    private static final class WatchBatch {
+        private final Path directory;
+        private final List<WatchEvent<?>> events;
+        private final boolean valid;
+
+        WatchBatch(Path directory, List<WatchEvent<?>> events, boolean valid) {
             this.directory = directory;
-            this.watchService = FileSystems.getDefault().newWatchService();
-            directory.register(watchService, new WatchEvent.Kind[]{StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE}, SensitivityWatchEventModifier.HIGH);
+            this.events = events;
+            this.valid = valid;
+        }
+    }
+
+    /**
+     * @param catalog the catalog that defines which directories are searched for log files
+     */
+    public LogUpdateWorker(LogCatalog catalog) {
+        this.catalog = catalog;
+        try {
+            this.watchService = SharedWatchService.getInstance();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -40,45 +111,181 @@ public class LogUpdateWorker extends SwingWorker<Void, WatchEvent<Path>> {
 
     @Override
     protected Void doInBackground() throws Exception {
-        for (;;) {
-            // wait for key to be signalled
-            WatchKey key;
+        if (catalog.getRoot() == null) {
+            return null;
+        }
+        try {
+            watch();
+        } finally {
+            for (SharedWatchService.Registration registration : directories.values()) {
+                registration.close();
+            }
+            directories.clear();
+        }
+        return null;
+    }
+
+    private void watch() {
+        register(catalog.getRoot(), false);
+
+        DirectoryPoller.Listener pollListener = new DirectoryPoller.Listener() {
+            @Override
+            public void created(Path file) {
+                publish(new Change(true, file));
+            }
+
+            @Override
+            public void modified(Path file) {
+                publish(new Change(false, file));
+            }
+
+            @Override
+            public void directoryCreated(Path dir) {
+                register(dir, true);
+            }
+        };
+
+        long nextPoll = System.nanoTime();
+        while (!directories.isEmpty() || poller.isActive()) {
+            // wait for events, or until the next poll is due
+            WatchBatch batch = null;
             try {
-                key = watchService.take();
+                if (!poller.isActive()) {
+                    batch = batches.take();
+                } else {
+                    long wait = TimeUnit.NANOSECONDS.toMillis(nextPoll - System.nanoTime());
+                    if (wait > 0) {
+                        batch = batches.poll(wait, TimeUnit.MILLISECONDS);
+                    }
+                }
             } catch (InterruptedException e) {
-                e.printStackTrace();
-                return null;
+                // cancelled, e.g. because the report session was closed
+                return;
             }
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-                if (kind == StandardWatchEventKinds.OVERFLOW) {
-                    continue;
+            if (poller.isActive() && System.nanoTime() - nextPoll >= 0) {
+                poller.poll(pollListener);
+                nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(poller.getInterval());
+            }
+            if (batch != null) {
+                processEvents(batch);
+            }
+        }
+    }
+
+    private void processEvents(WatchBatch batch) {
+        Path directory = batch.directory;
+        if (!directories.containsKey(directory)) {
+            // no longer registered
+            return;
+        }
+        boolean overflow = false;
+        for (WatchEvent<?> event : batch.events) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context());
+            if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(file, true);
                 }
-                publish((WatchEvent<Path>) event);
+                continue;
             }
+            publish(new Change(kind == StandardWatchEventKinds.ENTRY_CREATE, file));
+        }
 
-            // reset key return if directory no longer accessible
-            boolean valid = key.reset();
-            if (!valid) {
-                break;
+        // forget the directory if it is no longer accessible
+        if (!batch.valid) {
+            directories.remove(directory);
+        } else if (overflow) {
+            // events were lost - report everything, so that nothing is missed
+            register(directory, true);
+        }
+    }
+
+    /**
+     * @return true if the directory should be polled instead of being watched
+     */
+    private boolean needsPolling(Path dir) {
+        if (watchService == null || !watchService.isNative()) {
+            return true;
+        }
+        try {
+            String type = Files.getFileStore(dir).type().toLowerCase(Locale.ROOT);
+            for (String polled : POLLED_FILE_SYSTEMS) {
+                if (type.startsWith(polled)) {
+                    return true;
+                }
             }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Registers the directory and all of its subdirectories that can contain log files.
+     * @param reportFiles true to report existing files as created, because they were created before the registration
+     */
+    private void register(Path start, final boolean reportFiles) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!catalog.acceptsDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (directories.containsKey(dir)) {
+                        // rescan of a watched directory
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (needsPolling(dir)) {
+                        poller.add(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        directories.put(dir, watchService.register(dir, watchListener));
+                    } catch (IOException e) {
+                        poller.add(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (reportFiles && !attrs.isDirectory()) {
+                        publish(new Change(true, file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // unreadable files or folders are skipped
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return null;
     }
 
     @Override
-    protected void process(List<WatchEvent<Path>> chunks) {
+    protected void process(List<Change> chunks) {
         super.process(chunks);
-        for (WatchEvent<Path> event : chunks) {
-            WatchEvent.Kind<?> kind = event.kind();
-            Path fileName = event.context();
-            Path fileResolvedName = directory.resolve(fileName);
-            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                firePropertyChange(CREATED, null, fileResolvedName);
-            } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                firePropertyChange(MODIFIED, null, fileResolvedName);
+        // a busy log file is modified many times per batch - report it only once
+        Set<Path> modified = new LinkedHashSet<>();
+        for (Change change : chunks) {
+            if (change.created) {
+                firePropertyChange(CREATED, null, change.file);
+            } else {
+                modified.add(change.file);
             }
         }
+        for (Path fileResolvedName : modified) {
+            firePropertyChange(MODIFIED, null, fileResolvedName);
+        }
     }
 }
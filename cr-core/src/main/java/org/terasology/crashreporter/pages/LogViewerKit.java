@@ -0,0 +1,195 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+/**
+ * An editor kit for {@link MappedLogDocument}s. Its view assumes a fixed line height and paints
+ * only the lines that intersect the clip, so it never has to visit all lines of the document.
+ */
+public class LogViewerKit extends DefaultEditorKit {
+
+    private static final long serialVersionUID = 1923617066839203114L;
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return new ViewFactory() {
+            @Override
+            public View create(Element elem) {
+                return new LogLineView(elem);
+            }
+        };
+    }
+
+    /**
+     * Renders the lines of the root element.
+     */
+    static class LogLineView extends View implements TabExpander {
+
+        private final Segment line = new Segment();
+        private FontMetrics metrics;
+        private int tabBase;
+
+        LogLineView(Element elem) {
+            super(elem);
+        }
+
+        private FontMetrics getMetrics() {
+            Container host = getContainer();
+            Font font = host.getFont();
+            if (metrics == null || !metrics.getFont().equals(font)) {
+                metrics = host.getFontMetrics(font);
+            }
+            return metrics;
+        }
+
+        private int getLongestLineLength() {
+            Document doc = getDocument();
+            if (doc instanceof MappedLogDocument) {
+                return ((MappedLogDocument) doc).getLongestLineLength();
+            }
+            return 0;
+        }
+
+        /**
+         * Loads the text of the given line without the line break.
+         */
+        private int loadLine(int index, Segment segment) {
+            Element elem = getElement().getElement(index);
+            int start = elem.getStartOffset();
+            int end = Math.min(elem.getEndOffset() - 1, getDocument().getLength());
+            try {
+                getDocument().getText(start, end - start, segment);
+                if (segment.count > 0 && segment.array[segment.offset + segment.count - 1] == '\r') {
+                    segment.count--;
+                }
+            } catch (BadLocationException e) {
+                segment.count = 0;
+            }
+            return start;
+        }
+
+        @Override
+        public float getPreferredSpan(int axis) {
+            FontMetrics fm = getMetrics();
+            if (axis == X_AXIS) {
+                return getLongestLineLength() * (float) fm.charWidth('m') + 1;
+            }
+            return getElement().getElementCount() * (float) fm.getHeight();
+        }
+
+        @Override
+        public void paint(Graphics g, Shape a) {
+            Rectangle alloc = a.getBounds();
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = alloc;
+            }
+            JTextComponent host = (JTextComponent) getContainer();
+            FontMetrics fm = getMetrics();
+            int height = fm.getHeight();
+            int count = getElement().getElementCount();
+            int first = Math.max(0, (clip.y - alloc.y) / height);
+            int last = Math.min(count - 1, (clip.y + clip.height - alloc.y) / height);
+
+            g.setFont(host.getFont());
+            g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+            tabBase = alloc.x;
+            int y = alloc.y + first * height + fm.getAscent();
+            for (int i = first; i <= last; i++) {
+                int start = loadLine(i, line);
+                Utilities.drawTabbedText(line, alloc.x, y, g, this, start);
+                y += height;
+            }
+        }
+
+        @Override
+        public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            Document doc = getDocument();
+            if (pos < 0 || pos > doc.getLength() + 1) {
+                throw new BadLocationException("Invalid position", pos);
+            }
+            Rectangle alloc = a.getBounds();
+            FontMetrics fm = getMetrics();
+            int index = getElement().getElementIndex(pos);
+            int start = loadLine(index, line);
+            line.count = Math.max(0, Math.min(line.count, pos - start));
+            tabBase = alloc.x;
+            int x = alloc.x + Utilities.getTabbedTextWidth(line, fm, alloc.x, this, start);
+            return new Rectangle(x, alloc.y + index * fm.getHeight(), 1, fm.getHeight());
+        }
+
+        @Override
+        public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+            bias[0] = Position.Bias.Forward;
+            Rectangle alloc = a.getBounds();
+            int docLength = getDocument().getLength();
+            if (fy < alloc.y) {
+                return 0;
+            }
+            int index = (int) (fy - alloc.y) / getMetrics().getHeight();
+            if (index >= getElement().getElementCount()) {
+                return docLength;
+            }
+            int start = loadLine(index, line);
+            if (fx < alloc.x) {
+                return start;
+            }
+            tabBase = alloc.x;
+            int offset = Utilities.getTabbedTextOffset(line, getMetrics(), alloc.x, (int) fx, this, start);
+            return Math.min(start + offset, docLength);
+        }
+
+        @Override
+        public float nextTabStop(float x, int tabOffset) {
+            Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+            int tabSize = size instanceof Integer ? (Integer) size : 8;
+            int tabWidth = Math.max(1, tabSize * getMetrics().charWidth('m'));
+            int tabs = ((int) x - tabBase) / tabWidth;
+            return tabBase + (tabs + 1) * (float) tabWidth;
+        }
+
+        @Override
+        public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            documentChanged();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            documentChanged();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            documentChanged();
+        }
+
+        private void documentChanged() {
+            preferenceChanged(null, true, true);
+            Container host = getContainer();
+            if (host != null) {
+                host.repaint();
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.terasology.crashreporter.logs.MappedLogFile;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.UndoableEdit;
+import java.util.Arrays;
+
+/**
+ * A read-only document that is backed by a {@link MappedLogFile}. Line elements are not stored,
+ * but created on demand from the file's line index. Text can only be appended at the end,
+ * e.g. when the log file grows.
+ */
+public class MappedLogDocument extends AbstractDocument {
+
+    private static final long serialVersionUID = -2838406478862385123L;
+
+    private final transient MappedLogFile file;
+    private final LineRoot root = new LineRoot();
+
+    private int[] appendedLineStarts = new int[16];
+    private int appendedLineCount;
+    private int longestAppendedLine;
+
+    /**
+     * @param file the mapped log file
+     */
+    public MappedLogDocument(MappedLogFile file) {
+        super(new MappedContent(file));
+        this.file = file;
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+    }
+
+    /**
+     * @return the underlying mapped file
+     */
+    public MappedLogFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the length of the longest line in chars
+     */
+    public int getLongestLineLength() {
+        return Math.max(file.getLongestLine(), longestAppendedLine);
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        try {
+            int offset = chng.getOffset();
+            String text = getText(offset, chng.getLength());
+            int lineStart = lineStart(root.getElementCount() - 1);
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    int next = offset + i + 1;
+                    longestAppendedLine = Math.max(longestAppendedLine, next - lineStart - 1);
+                    lineStart = next;
+                    if (appendedLineCount == appendedLineStarts.length) {
+                        appendedLineStarts = Arrays.copyOf(appendedLineStarts, appendedLineCount * 2);
+                    }
+                    appendedLineStarts[appendedLineCount++] = next;
+                }
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    private int lineStart(int line) {
+        int mappedLines = file.getLineCount();
+        return line < mappedLines ? file.getLineStartOffset(line) : appendedLineStarts[line - mappedLines];
+    }
+
+    /**
+     * The root element that has one (virtual) child element per line.
+     */
+    private class LineRoot implements Element {
+
+        @Override
+        public Document getDocument() {
+            return MappedLogDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return SectionElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            if (appendedLineCount > 0 && offset >= appendedLineStarts[0]) {
+                int idx = Arrays.binarySearch(appendedLineStarts, 0, appendedLineCount, offset);
+                return file.getLineCount() + (idx >= 0 ? idx : -idx - 2);
+            }
+            return file.getLineOfOffset(Math.max(0, Math.min(offset, file.getLength())));
+        }
+
+        @Override
+        public int getElementCount() {
+            return file.getLineCount() + appendedLineCount;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            if (index < 0 || index >= getElementCount()) {
+                return null;
+            }
+            return new LineElement(this, index);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /**
+     * A single line, created on demand.
+     */
+    private class LineElement implements Element {
+
+        private final Element parent;
+        private final int start;
+        private final int end;
+
+        LineElement(Element parent, int index) {
+            this.parent = parent;
+            this.start = lineStart(index);
+            this.end = index + 1 < parent.getElementCount() ? lineStart(index + 1) : getLength() + 1;
+        }
+
+        @Override
+        public Document getDocument() {
+            return MappedLogDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return parent;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return start;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return end;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+
+    /**
+     * Serves the mapped region from the file, followed by appended text and the implicit trailing newline.
+     */
+    private static final class MappedContent implements AbstractDocument.Content {
+
+        private final MappedLogFile file;
+        private final StringBuilder appended = new StringBuilder();
+
+        MappedContent(MappedLogFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public Position createPosition(int offset) throws BadLocationException {
+            if (offset < 0 || offset > length()) {
+                throw new BadLocationException("Invalid position", offset);
+            }
+            final int fromEnd = length() - offset;
+            if (fromEnd <= 1) {
+                // at the insertion point: move along with appended text
+                return new Position() {
+                    @Override
+                    public int getOffset() {
+                        return length() - fromEnd;
+                    }
+                };
+            }
+            return new Position() {
+                @Override
+                public int getOffset() {
+                    return offset;
+                }
+            };
+        }
+
+        @Override
+        public int length() {
+            return file.getLength() + appended.length() + 1;
+        }
+
+        @Override
+        public UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where != length() - 1) {
+                throw new BadLocationException("Mapped log content can only be appended to", where);
+            }
+            appended.append(str);
+            return null;
+        }
+
+        @Override
+        public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            throw new BadLocationException("Mapped log content is read-only", where);
+        }
+
+        @Override
+        public String getString(int where, int len) throws BadLocationException {
+            Segment segment = new Segment();
+            getChars(where, len, segment);
+            return segment.toString();
+        }
+
+        @Override
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length()) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+            char[] chars = new char[len];
+            int mapped = file.getLength();
+            int n = 0;
+            if (where < mapped) {
+                n = Math.min(len, mapped - where);
+                file.decode(where, n, chars, 0);
+            }
+            if (n < len) {
+                int rel = where + n - mapped;
+                int count = Math.min(len - n, appended.length() - rel);
+                appended.getChars(rel, rel + count, chars, n);
+                n += count;
+            }
+            if (n < len) {
+                chars[n] = '\n';
+            }
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+    }
+}
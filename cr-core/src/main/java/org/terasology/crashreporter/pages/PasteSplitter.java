@@ -0,0 +1,254 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.terasology.crashreporter.upload.Attachment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Splits logs that are too large for a single paste into parts. Parts end at line breaks,
+ * unless a single line is too large, so every part can be read on its own.
+ * <p>
+ * Logs that are sent from their file are split into byte ranges of the file, without reading them into memory.
+ */
+final class PasteSplitter {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private PasteSplitter() {
+        // only static methods
+    }
+
+    /**
+     * Splits a log. The content of logs that are not sent from their file is read at once.
+     * @param log     the log
+     * @param maxBytes the maximum number of UTF-8 bytes per part
+     * @return the parts of the log, just one if it is small enough
+     * @throws IOException if the log file cannot be read
+     */
+    static List<Attachment> split(Attachment log, long maxBytes) throws IOException {
+        Path file = log.getFile();
+        List<Attachment> parts = new ArrayList<>();
+        if (file != null) {
+            List<long[]> ranges = splitFile(file, log.getFileOffset(), log.getFileLength(), maxBytes);
+            if (ranges.size() == 1) {
+                parts.add(log);
+                return parts;
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                parts.add(new Attachment(partName(log, i, ranges.size()), new FileSlice(file, range[0], range[1]),
+                        file, range[0], range[1]));
+            }
+        } else {
+            List<String> texts = splitText(log.getContent(), maxBytes);
+            for (int i = 0; i < texts.size(); i++) {
+                String name = texts.size() == 1 ? log.getName() : partName(log, i, texts.size());
+                // the content was read already
+                final String text = texts.get(i);
+                parts.add(new Attachment(name, new Supplier<String>() {
+                    @Override
+                    public String get() {
+                        return text;
+                    }
+                }));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Leaves out parts until all logs fit into the given number of parts. The first parts of the log with the
+     * most parts are left out first, as the end of a log usually contains the error. Only if there are more logs
+     * than parts, whole logs are left out, starting with the last one. Nothing is read for this.
+     * @param logs     the logs
+     * @param parts    the parts of each log, left out parts are removed from these lists
+     * @param maxParts the maximum number of parts of all logs together
+     * @return a note for every log that was cut, empty if all parts fit
+     */
+    static List<String> keepTails(List<Attachment> logs, List<List<Attachment>> parts, int maxParts) {
+        int[] counts = new int[parts.size()];
+        int[] omitted = new int[parts.size()];
+        int total = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            counts[i] = parts.get(i).size();
+            total += counts[i];
+        }
+        for (int i = parts.size() - 1; i >= Math.max(0, maxParts); i--) {
+            total -= parts.get(i).size();
+            omitted[i] = counts[i];
+            parts.get(i).clear();
+        }
+        while (total > maxParts) {
+            int largest = 0;
+            for (int i = 1; i < parts.size(); i++) {
+                if (parts.get(i).size() > parts.get(largest).size()) {
+                    largest = i;
+                }
+            }
+            parts.get(largest).remove(0);
+            omitted[largest]++;
+            total--;
+        }
+        List<String> notes = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            if (omitted[i] == counts[i]) {
+                notes.add(logs.get(i).getName() + ": left out");
+            } else if (omitted[i] > 0) {
+                notes.add(logs.get(i).getName() + ": the first " + omitted[i] + " of " + counts[i] + " parts are left out");
+            }
+        }
+        return notes;
+    }
+
+    private static String partName(Attachment log, int index, int count) {
+        return log.getName() + " (" + (index + 1) + "/" + count + ")";
+    }
+
+    /**
+     * @return the offset and length of each part
+     */
+    static List<long[]> splitFile(Path file, long offset, long length, long maxBytes) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        long start = offset;
+        long end = offset + length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            while (end - start > maxBytes) {
+                long cut = findLineEnd(channel, block, start, start + maxBytes);
+                if (cut < 0) {
+                    cut = findCharStart(channel, block, start, start + maxBytes);
+                }
+                ranges.add(new long[] {start, cut - start});
+                start = cut;
+            }
+        }
+        ranges.add(new long[] {start, end - start});
+        return ranges;
+    }
+
+    /**
+     * @return the position after the last line break in the range, or -1 if there is none
+     */
+    private static long findLineEnd(FileChannel channel, ByteBuffer block, long start, long limit) throws IOException {
+        long blockEnd = limit;
+        while (blockEnd > start) {
+            long blockStart = Math.max(start, blockEnd - BLOCK_SIZE);
+            read(channel, block, blockStart, (int) (blockEnd - blockStart));
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last position in the range that does not split an UTF-8 sequence
+     */
+    private static long findCharStart(FileChannel channel, ByteBuffer block, long start, long limit) throws IOException {
+        long blockStart = Math.max(start + 1, limit - 3);
+        read(channel, block, blockStart, (int) (limit + 1 - blockStart));
+        long position = limit;
+        // continuation bytes are 10xxxxxx
+        while (position > blockStart && (block.get((int) (position - blockStart)) & 0xC0) == 0x80) {
+            position--;
+        }
+        return position;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer block, long position, int length) throws IOException {
+        block.clear();
+        block.limit(length);
+        while (block.hasRemaining()) {
+            if (channel.read(block, position + block.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        block.flip();
+    }
+
+    /**
+     * @return the parts of the text, at least one
+     */
+    static List<String> splitText(String text, long maxBytes) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int lineEnd = -1;
+        long bytes = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            int size = utf8Length(codePoint);
+            if (bytes + size > maxBytes && i > start) {
+                int cut = lineEnd > start ? lineEnd : i;
+                parts.add(text.substring(start, cut));
+                bytes = 0;
+                for (int j = cut; j < i; j = text.offsetByCodePoints(j, 1)) {
+                    bytes += utf8Length(text.codePointAt(j));
+                }
+                start = cut;
+                lineEnd = -1;
+                // check the same character against the new part
+                continue;
+            }
+            bytes += size;
+            i += Character.charCount(codePoint);
+            if (codePoint == '\n') {
+                lineEnd = i;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        }
+        if (codePoint < 0x800) {
+            return 2;
+        }
+        return codePoint < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * Reads a part of a UTF-8 file, e.g. if it is spooled.
+     */
+    private static final class FileSlice implements Supplier<String> {
+
+        private final Path file;
+        private final long offset;
+        private final long length;
+
+        FileSlice(Path file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String get() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer bytes = ByteBuffer.allocate((int) length);
+                read(channel, bytes, offset, (int) length);
+                return StandardCharsets.UTF_8.decode(bytes).toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
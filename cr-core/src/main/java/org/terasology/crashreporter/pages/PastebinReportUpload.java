@@ -0,0 +1,214 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.CachedUpload;
+import org.terasology.crashreporter.upload.ContentHash;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Uploads a report to Pastebin. A single log that fits into a paste is pasted together with the message of the user.
+ * Otherwise every log gets its own pastes - large logs are split into several - and an index paste links them.
+ * A report consists of at most <code>UPLOAD_PASTEBIN_MAX_PASTES</code> pastes, the beginning of large logs is
+ * left out otherwise and noted in the index.
+ * <p>
+ * This does not depend on Swing, so it is also used to upload reports without a window.
+ */
+public class PastebinReportUpload implements Callable<URL>, ReportSpool.Content {
+
+    private static final long DEFAULT_RETRIES = 5;
+
+    private static final long DEFAULT_PARALLEL_PARTS = 4;
+
+    private static final long DEFAULT_PASTEBIN_MAX_KB = 500;
+
+    private static final long DEFAULT_PASTEBIN_MAX_PASTES = 5;
+
+    private static final Supplier<String> EMPTY = new Supplier<String>() {
+        @Override
+        public String get() {
+            return "";
+        }
+    };
+
+    private final CloseableHttpClient client;
+    private final String userInfo;
+    private final List<Attachment> logs;
+    private final UploadCache cache;
+    private final RetryingCallable.Listener listener;
+    private final UploadMonitor monitor;
+    private final int maxRetries;
+    private final int parallelParts;
+    private final long maxPasteSize;
+    private final int maxPastes;
+
+    /**
+     * @param properties the properties that configure the upload
+     * @param client     the (shared) client that is used for the upload
+     * @param userInfo   the message of the user, may be empty
+     * @param logs       the logs of the report
+     * @param cache      the links of earlier uploads or <code>null</code>
+     * @param listener   is informed when a failed paste is retried
+     * @param monitor    counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    public PastebinReportUpload(GlobalProperties properties, CloseableHttpClient client, String userInfo,
+                                List<Attachment> logs, UploadCache cache, RetryingCallable.Listener listener,
+                                UploadMonitor monitor) {
+        this.client = client;
+        this.userInfo = userInfo;
+        this.logs = logs;
+        this.cache = cache;
+        this.listener = listener;
+        this.monitor = monitor;
+        this.maxRetries = (int) Math.max(0, properties.getLong(KEY.UPLOAD_RETRIES, DEFAULT_RETRIES));
+        this.parallelParts = (int) Math.max(1, properties.getLong(KEY.UPLOAD_PARALLEL_PARTS, DEFAULT_PARALLEL_PARTS));
+        this.maxPasteSize = Math.max(1, properties.getLong(KEY.UPLOAD_PASTEBIN_MAX_KB, DEFAULT_PASTEBIN_MAX_KB)) * 1024;
+        this.maxPastes = (int) Math.max(2, properties.getLong(KEY.UPLOAD_PASTEBIN_MAX_PASTES, DEFAULT_PASTEBIN_MAX_PASTES));
+    }
+
+    /**
+     * @param userInfo the message of the user, may be empty
+     * @return the text that precedes the log in a report, empty if there is no message
+     */
+    public static String getLogHeader(String userInfo) {
+        if (userInfo.isEmpty()) {
+            return "";
+        }
+        // probably don't want to apply i18n to this
+        return new StringBuilder("USER-GIVEN INFO:")
+                .append("\n")
+                .append(userInfo)
+                .append("\n\n")
+                .append("ERROR STACK TRACE:")
+                .append("\n")
+                .toString();
+    }
+
+    @Override
+    public URL call() throws Exception {
+        String header = getLogHeader(userInfo);
+        long budget = maxPasteSize;
+        if (logs.size() == 1) {
+            budget -= header.getBytes(StandardCharsets.UTF_8).length;
+        }
+        // splitting reads the log files, so it happens on the upload thread
+        List<List<Attachment>> logParts = new ArrayList<>();
+        int count = 0;
+        for (Attachment log : logs) {
+            logParts.add(PasteSplitter.split(log, Math.max(1, budget)));
+            count += logParts.get(logParts.size() - 1).size();
+        }
+        List<String> omitted = Collections.emptyList();
+        if (count > 1) {
+            // decided before the first paste, one paste is left for the index
+            omitted = PasteSplitter.keepTails(logs, logParts, maxPastes - 1);
+        }
+        List<Attachment> parts = new ArrayList<>();
+        for (List<Attachment> list : logParts) {
+            parts.addAll(list);
+        }
+        if (logs.size() <= 1 && parts.size() <= 1 && omitted.isEmpty()) {
+            Attachment log = parts.isEmpty() ? new Attachment(PastebinUploadRunnable.TITLE, EMPTY) : parts.get(0);
+            return createPaste(PastebinUploadRunnable.TITLE, header, log, monitor).call();
+        }
+        ReportUploadRunnable.PartUploader uploader = new ReportUploadRunnable.PartUploader() {
+            @Override
+            public Callable<URL> create(Attachment attachment, UploadMonitor partMonitor) {
+                return createPaste(attachment.getName(), "", attachment, partMonitor);
+            }
+        };
+        return new ReportUploadRunnable(PastebinUploadRunnable.TITLE, userInfo, parts, omitted, uploader,
+                monitor, parallelParts).call();
+    }
+
+    /**
+     * Writes all logs in a single text, which is spooled if the upload fails.
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        writeText(userInfo, logs, out);
+    }
+
+    /**
+     * Writes a report in a single text like a paste of it. Logs are copied from their file where possible.
+     * @param userInfo the message of the user, may be empty
+     * @param logs     the logs of the report
+     * @param out      receives the UTF-8 encoded text, it is not closed
+     * @throws IOException if a log cannot be read or the text cannot be written
+     */
+    static void writeText(String userInfo, List<Attachment> logs, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        if (logs.size() <= 1) {
+            writer.write(getLogHeader(userInfo));
+            writer.flush();
+            if (!logs.isEmpty()) {
+                logs.get(0).writeTo(out);
+            }
+            return;
+        }
+        if (!userInfo.isEmpty()) {
+            writer.write("USER-GIVEN INFO:\n" + userInfo + "\n\n");
+        }
+        for (Attachment log : logs) {
+            writer.write("===== " + log.getName() + " =====\n");
+            writer.flush();
+            log.writeTo(out);
+            writer.write("\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Pastes a log. Logs that were not edited are sent straight from their file, so that
+     * neither the log nor its encoded form is held in memory.
+     * @param header the text that precedes the log, e.g. the message of the user
+     */
+    private Callable<URL> createPaste(final String title, final String header, final Attachment log,
+                                      final UploadMonitor pasteMonitor) {
+        return new Callable<URL>() {
+            @Override
+            public URL call() throws Exception {
+                Path file = log.getFile();
+                Callable<URL> paste;
+                String hash = null;
+                if (file != null) {
+                    paste = new PastebinUploadRunnable(client, title, header, file, log.getFileOffset(), log.getFileLength(),
+                            pasteMonitor);
+                    if (cache != null) {
+                        hash = ContentHash.of(header, file, log.getFileOffset(), log.getFileLength());
+                    }
+                } else {
+                    String text = header + log.getContent();
+                    paste = new PastebinUploadRunnable(client, title, text, pasteMonitor);
+                    if (cache != null) {
+                        hash = ContentHash.of(text);
+                    }
+                }
+                // transient failures are retried automatically
+                Callable<URL> retrying = new RetryingCallable<>(paste, maxRetries, listener);
+                return new CachedUpload(cache, ReportSpool.PASTEBIN, hash, retrying).call();
+            }
+        };
+    }
+}
@@ -3,13 +3,26 @@
 
 package org.terasology.crashreporter.pages;
 
-import org.jpastebin.exceptions.PasteException;
-import org.jpastebin.pastebin.PasteExpireDate;
-import org.jpastebin.pastebin.Pastebin;
-import org.jpastebin.pastebin.PastebinLink;
-import org.jpastebin.pastebin.PastebinPaste;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.terasology.crashreporter.upload.FormFileEntity;
+import org.terasology.crashreporter.upload.HttpStatusException;
+import org.terasology.crashreporter.upload.UploadLimitException;
+import org.terasology.crashreporter.upload.UploadMonitor;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
@@ -23,21 +36,95 @@ public class PastebinUploadRunnable implements Callable<URL> {
      */
     private static final String PASTEBIN_DEVELOPER_KEY = "1ed92217030bd6c2570fac91bcbfee78";
 
+    static final String TITLE = "Terasology Error Report";
+
+    private static final String PASTEBIN_API_URL = "https://pastebin.com/api/api_post.php";
+
+    private final CloseableHttpClient client;
+    private final String title;
     private final String content;
+    private final Path file;
+    private final long fileOffset;
+    private final long fileLength;
+    private final UploadMonitor monitor;
 
-    public PastebinUploadRunnable(String content) {
-        this.content = content;
+    /**
+     * @param client  the (shared) client that is used for the upload
+     * @param content the text to paste
+     * @param monitor counts the sent bytes and aborts the request if the upload is cancelled
+     */
+    public PastebinUploadRunnable(CloseableHttpClient client, String content, UploadMonitor monitor) {
+        this(client, TITLE, content, monitor);
+    }
+
+    /**
+     * @param client  the (shared) client that is used for the upload
+     * @param title   the title of the paste
+     * @param content the text to paste
+     * @param monitor counts the sent bytes and aborts the request if the upload is cancelled
+     */
+    public PastebinUploadRunnable(CloseableHttpClient client, String title, String content, UploadMonitor monitor) {
+        this(client, title, content, null, 0, 0, monitor);
+    }
+
+    /**
+     * Pastes a log file without reading it into memory.
+     * @param client     the (shared) client that is used for the upload
+     * @param title      the title of the paste
+     * @param header     the text that precedes the log, e.g. the message of the user
+     * @param file       the UTF-8 encoded log file
+     * @param fileOffset the offset of the first byte of the file to paste
+     * @param fileLength the number of bytes of the file to paste
+     * @param monitor    counts the sent bytes and aborts the request if the upload is cancelled
+     */
+    public PastebinUploadRunnable(CloseableHttpClient client, String title, String header, Path file, long fileOffset,
+                                  long fileLength, UploadMonitor monitor) {
+        this.client = client;
+        this.title = title;
+        this.content = header;
+        this.file = file;
+        this.fileOffset = fileOffset;
+        this.fileLength = fileLength;
+        this.monitor = monitor;
     }
 
     @Override
-    public URL call() throws PasteException {
-        String title = "Terasology Error Report";
-        final PastebinPaste paste = Pastebin.newPaste(PASTEBIN_DEVELOPER_KEY, content, title);
-        paste.setPasteFormat("apache"); // Apache Log File Format - this is the closest I could find
-        paste.setPasteExpireDate(PasteExpireDate.ONE_MONTH);
-
-        PastebinLink link = paste.paste();
-        final URL url = link.getLink();
-        return url;
+    public URL call() throws IOException {
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("api_dev_key", PASTEBIN_DEVELOPER_KEY));
+        params.add(new BasicNameValuePair("api_option", "paste"));
+        params.add(new BasicNameValuePair("api_paste_name", title));
+        params.add(new BasicNameValuePair("api_paste_format", "apache")); // Apache Log File Format - this is the closest I could find
+        params.add(new BasicNameValuePair("api_paste_expire_date", "1M"));
+
+        HttpPost post = new HttpPost(PASTEBIN_API_URL);
+        HttpEntity entity;
+        if (file != null) {
+            // the file is encoded while it is sent
+            entity = new FormFileEntity(params, "api_paste_code", content, file, fileOffset, fileLength);
+        } else {
+            params.add(new BasicNameValuePair("api_paste_code", content));
+            entity = new UrlEncodedFormEntity(params, StandardCharsets.UTF_8);
+        }
+        monitor.setTotal(entity.getContentLength());
+        post.setEntity(monitor.track(entity, 0));
+        try (CloseableHttpResponse response = monitor.execute(client, post)) {
+            int code = response.getStatusLine().getStatusCode();
+            String responseText = EntityUtils.toString(response.getEntity(), "UTF-8").trim();
+            if (code != HttpStatus.SC_OK) {
+                throw new HttpStatusException(response, responseText);
+            }
+            // errors are reported as "Bad API request, <reason>", the daily limit as "Post limit, <reason>"
+            if (!responseText.startsWith("http")) {
+                if (responseText.startsWith("Post limit")) {
+                    throw new UploadLimitException("Pastebin accepts no more pastes from this address today: " + responseText);
+                }
+                if (responseText.startsWith("Bad API request, maximum")) {
+                    throw new UploadLimitException("Pastebin rejected the paste: " + responseText);
+                }
+                throw new IOException(responseText);
+            }
+            return new URL(responseText);
+        }
     }
 }
@@ -0,0 +1,177 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Uploads a report that consists of several log files. Every log is uploaded on its own and
+ * several logs are uploaded at the same time, so the report takes about as long as its largest log.
+ * Finally, an index with the user message and the links to all logs is uploaded. Its link is the
+ * link of the report. The index also lists the parts of the report that were left out, if any.
+ */
+public class ReportUploadRunnable implements Callable<URL> {
+
+    /**
+     * Creates the upload of a single log or the index, e.g. a paste.
+     */
+    public interface PartUploader {
+
+        /**
+         * @param attachment the log or the index
+         * @param monitor    the monitor for the requests of the upload
+         * @return the upload, which returns the link of the text
+         */
+        Callable<URL> create(Attachment attachment, UploadMonitor monitor);
+    }
+
+    private final String title;
+    private final String userInfo;
+    private final List<Attachment> attachments;
+    private final List<String> omitted;
+    private final PartUploader uploader;
+    private final UploadMonitor monitor;
+    private final int parallelism;
+
+    /**
+     * @param title       the title of the index
+     * @param userInfo    the message of the user, may be empty
+     * @param attachments the logs of the report
+     * @param uploader    creates the uploads of the logs and the index
+     * @param monitor     the monitor of the complete report, each upload gets a part of it
+     * @param parallelism the maximum number of logs that are uploaded at the same time
+     */
+    public ReportUploadRunnable(String title, String userInfo, List<Attachment> attachments, PartUploader uploader,
+                                UploadMonitor monitor, int parallelism) {
+        this(title, userInfo, attachments, Collections.<String>emptyList(), uploader, monitor, parallelism);
+    }
+
+    /**
+     * @param title       the title of the index
+     * @param userInfo    the message of the user, may be empty
+     * @param attachments the logs of the report
+     * @param omitted     notes about the parts of the logs that are not uploaded
+     * @param uploader    creates the uploads of the logs and the index
+     * @param monitor     the monitor of the complete report, each upload gets a part of it
+     * @param parallelism the maximum number of logs that are uploaded at the same time
+     */
+    public ReportUploadRunnable(String title, String userInfo, List<Attachment> attachments, List<String> omitted,
+                                PartUploader uploader, UploadMonitor monitor, int parallelism) {
+        this.title = title;
+        this.userInfo = userInfo;
+        this.attachments = attachments;
+        this.omitted = omitted;
+        this.uploader = uploader;
+        this.monitor = monitor;
+        this.parallelism = Math.max(1, Math.min(parallelism, attachments.size()));
+    }
+
+    @Override
+    public URL call() throws Exception {
+        List<URL> links = uploadAttachments();
+        final String index = createIndex(links);
+        Attachment indexAttachment = new Attachment(title, new Supplier<String>() {
+            @Override
+            public String get() {
+                return index;
+            }
+        });
+        return uploader.create(indexAttachment, monitor.createPart()).call();
+    }
+
+    private List<URL> uploadAttachments() throws Exception {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                // created by the calling thread, so it has the same priority
+                Thread thread = new Thread(r, "Upload Part " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // failures are noticed as soon as they happen, not when the uploads before them are done
+        CompletionService<URL> completion = new ExecutorCompletionService<>(executor);
+        List<UploadMonitor> partMonitors = new ArrayList<>();
+        List<Future<URL>> futures = new ArrayList<>();
+        try {
+            for (final Attachment attachment : attachments) {
+                final UploadMonitor partMonitor = monitor.createPart();
+                partMonitors.add(partMonitor);
+                futures.add(completion.submit(new Callable<URL>() {
+                    @Override
+                    public URL call() throws Exception {
+                        // the logs are also read in parallel
+                        return uploader.create(attachment, partMonitor).call();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                completion.take().get();
+            }
+            List<URL> links = new ArrayList<>();
+            for (Future<URL> future : futures) {
+                links.add(future.get());
+            }
+            return links;
+        } catch (InterruptedException e) {
+            cancel(partMonitors);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        } catch (ExecutionException e) {
+            // the report is incomplete anyway - abort the other logs
+            cancel(partMonitors);
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void cancel(List<UploadMonitor> partMonitors) {
+        for (UploadMonitor partMonitor : partMonitors) {
+            partMonitor.cancel();
+        }
+    }
+
+    private String createIndex(List<URL> links) {
+        StringBuilder index = new StringBuilder();
+        if (!userInfo.isEmpty()) {
+            // probably don't want to apply i18n to this
+            index.append("USER-GIVEN INFO:\n").append(userInfo).append("\n\n");
+        }
+        index.append("LOG FILES:\n");
+        for (int i = 0; i < attachments.size(); i++) {
+            index.append(attachments.get(i).getName()).append(": ").append(links.get(i)).append('\n');
+        }
+        if (!omitted.isEmpty()) {
+            index.append("\nOMITTED:\n");
+            for (String note : omitted) {
+                index.append(note).append('\n');
+            }
+        }
+        return index.toString();
+    }
+}
@@ -0,0 +1,298 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.terasology.crashreporter.upload.HttpStatusException;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uploads a document in chunks, so that an interrupted upload continues where the server stopped
+ * receiving it. Offsets are counted in bytes of the UTF-8 encoded (uncompressed) text.
+ * <ol>
+ * <li><code>POST &lt;uri&gt;/resumable</code> with the headers <code>Upload-Name</code> and <code>Upload-Hash</code>
+ * (<code>sha-256</code> and the hex encoded hash of the complete text) creates an upload.
+ * The server answers <code>201 Created</code> with the address of the upload in <code>Location</code>.</li>
+ * <li><code>HEAD &lt;upload&gt;</code> returns the number of bytes the server has stored in <code>Upload-Offset</code>.</li>
+ * <li><code>PATCH &lt;upload&gt;</code> appends a chunk at <code>Upload-Offset</code>. The header <code>Upload-Checksum</code>
+ * contains <code>sha-256</code> and the Base64 encoded hash of the chunk. The server stores the chunk only if the checksum
+ * matches (otherwise <code>460</code>) and the offset matches (otherwise <code>409 Conflict</code>) and returns the new
+ * <code>Upload-Offset</code>. The last chunk contains <code>Upload-Length</code>, the total size. The server then answers
+ * <code>200 OK</code> with the URL of the log file instead of <code>204 No Content</code>.</li>
+ * </ol>
+ * Chunks are gzip-compressed unless the server does not accept it.
+ * <p>
+ * If the beginning of the text was uploaded before (e.g. the log of an earlier report in the same session),
+ * the creation request also contains <code>Upload-Base</code> (the URL of that upload), <code>Upload-Base-Length</code>
+ * and <code>Upload-Base-Hash</code> (the hash of the beginning). A server that has the earlier upload copies its
+ * beginning into the new one and answers with <code>Upload-Offset</code> set to the length of the beginning, so only
+ * the rest is sent. <code>Upload-Hash</code> is the hash of the complete text in any case, so the server can check
+ * the reassembled log. Servers that do not know the earlier upload answer <code>412 Precondition Failed</code>, and
+ * servers that do not support this answer without <code>Upload-Offset</code> - the complete text is sent then.
+ */
+final class ResumableUpload {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int CHECKSUM_MISMATCH = 460;
+
+    /**
+     * The number of times a chunk is sent again right away after a checksum or offset mismatch
+     */
+    private static final int MAX_RESENDS = 3;
+
+    private final CloseableHttpClient client;
+    private final UploadMonitor monitor;
+    private final URI createUri;
+    private final TextSource reader;
+    private final String fileName;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The byte offsets of all chunks that were sent, mapped to the character offsets where they start
+     */
+    private final Map<Long, Long> chunkStarts = new HashMap<>();
+
+    private URI upload;
+    private String contentHash;
+    private UploadCache.LastUpload base;
+    private long baseChars;
+    private volatile long offset;
+
+    /**
+     * @param client   the client for all requests
+     * @param postUri  the upload address of the server
+     * @param text     the text to upload
+     * @param fileName the name of the log file
+     * @param monitor  counts the sent bytes and aborts the requests if the upload is cancelled
+     */
+    ResumableUpload(CloseableHttpClient client, URI postUri, TextSource text, String fileName,
+                    UploadMonitor monitor) {
+        this.client = client;
+        this.monitor = monitor;
+        this.createUri = URI.create(postUri.toString().replaceAll("/+$", "") + "/resumable");
+        this.reader = text;
+        this.fileName = fileName;
+    }
+
+    /**
+     * @param contentHash the SHA-256 of the complete text as hex string, see {@link org.terasology.crashreporter.upload.ContentHash}
+     */
+    void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @param lastUpload the earlier upload of the beginning of the text, or <code>null</code> to send the complete text
+     * @param chars      the number of characters of the beginning
+     */
+    void setBase(UploadCache.LastUpload lastUpload, long chars) {
+        this.base = lastUpload;
+        this.baseChars = chars;
+    }
+
+    /**
+     * @return the number of bytes the server has acknowledged
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Starts the upload or continues it after a failure.
+     * @param compress true to compress the chunks
+     * @return the URL of the uploaded file or <code>null</code> if the server does not support resumable uploads
+     * @throws IOException if the upload fails, call again to resume it
+     */
+    URL upload(boolean compress) throws IOException {
+        if (upload == null) {
+            if (!create()) {
+                return null;
+            }
+        } else {
+            // the last response may have been lost - ask the server how far it got
+            offset = queryOffset();
+            monitor.setSent(offset);
+        }
+
+        int resends = 0;
+        while (true) {
+            Long start = chunkStarts.get(offset);
+            if (start == null) {
+                // not at a chunk boundary (e.g. the server lost data) - start from scratch
+                upload = null;
+                if (!create()) {
+                    return null;
+                }
+                start = 0L;
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            long end = encode(start, chunk);
+            chunk.flip();
+            boolean last = end >= reader.getLength();
+            chunkStarts.put(offset + chunk.remaining(), end);
+
+            HttpPatch patch = new HttpPatch(upload);
+            patch.setHeader("Upload-Offset", Long.toString(offset));
+            patch.setHeader("Upload-Checksum", "sha-256 " + checksum(chunk));
+            if (last) {
+                patch.setHeader("Upload-Length", Long.toString(offset + chunk.remaining()));
+            }
+            HttpEntity entity = new ByteArrayEntity(chunk.array(), 0, chunk.remaining(), ContentType.APPLICATION_OCTET_STREAM);
+            entity = monitor.track(entity, offset);
+            patch.setEntity(compress ? new GzipCompressingEntity(entity) : entity);
+
+            try (CloseableHttpResponse response = monitor.execute(client, patch)) {
+                int code = response.getStatusLine().getStatusCode();
+                String responseText = readText(response);
+                if ((code == HttpStatus.SC_CONFLICT || code == CHECKSUM_MISMATCH) && resends < MAX_RESENDS) {
+                    // out of sync, or corrupted on the way - send it again
+                    resends++;
+                    offset = queryOffset();
+                    continue;
+                }
+                if (code != HttpStatus.SC_OK && code != HttpStatus.SC_NO_CONTENT) {
+                    throw new HttpStatusException(response, responseText);
+                }
+                resends = 0;
+                offset = parseOffset(response);
+                if (last && code == HttpStatus.SC_OK) {
+                    return new URL(responseText.trim());
+                }
+            }
+        }
+    }
+
+    private boolean create() throws IOException {
+        while (true) {
+            HttpPost post = new HttpPost(createUri);
+            post.setHeader("Upload-Name", fileName);
+            if (contentHash != null) {
+                post.setHeader("Upload-Hash", "sha-256 " + contentHash);
+            }
+            if (base != null) {
+                post.setHeader("Upload-Base", base.getUrl().toString());
+                post.setHeader("Upload-Base-Length", Long.toString(base.getLength()));
+                post.setHeader("Upload-Base-Hash", "sha-256 " + base.getHash());
+            }
+            try (CloseableHttpResponse response = monitor.execute(client, post)) {
+                int code = response.getStatusLine().getStatusCode();
+                String responseText = readText(response);
+                if (code == HttpStatus.SC_NOT_FOUND || code == HttpStatus.SC_METHOD_NOT_ALLOWED || code == HttpStatus.SC_NOT_IMPLEMENTED) {
+                    return false;
+                }
+                if (code == HttpStatus.SC_PRECONDITION_FAILED && base != null) {
+                    // the earlier upload expired or was deleted
+                    base = null;
+                    continue;
+                }
+                Header location = response.getFirstHeader(HttpHeaders.LOCATION);
+                if (code != HttpStatus.SC_CREATED || location == null) {
+                    throw new HttpStatusException(response, responseText);
+                }
+                upload = createUri.resolve(location.getValue());
+                chunkStarts.clear();
+                chunkStarts.put(0L, 0L);
+                offset = 0;
+                if (base != null && response.getFirstHeader("Upload-Offset") != null
+                        && parseOffset(response) == base.getLength()) {
+                    // the server took the beginning from the earlier upload
+                    offset = base.getLength();
+                    chunkStarts.put(offset, baseChars);
+                }
+                monitor.setSent(offset);
+                return true;
+            }
+        }
+    }
+
+    private static String readText(CloseableHttpResponse response) throws IOException {
+        // "201 Created" and "204 No Content" usually have no body
+        HttpEntity entity = response.getEntity();
+        return entity != null ? EntityUtils.toString(entity, "UTF-8") : "";
+    }
+
+    private long queryOffset() throws IOException {
+        try (CloseableHttpResponse response = monitor.execute(client, new HttpHead(upload))) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new HttpStatusException(response, "Upload not found: " + upload);
+            }
+            return parseOffset(response);
+        }
+    }
+
+    private static long parseOffset(CloseableHttpResponse response) throws IOException {
+        Header header = response.getFirstHeader("Upload-Offset");
+        try {
+            return Long.parseLong(header.getValue().trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IOException("Invalid Upload-Offset: " + header);
+        }
+    }
+
+    /**
+     * Encodes as many complete characters as fit into the chunk.
+     * @return the offset of the first character that was not encoded
+     */
+    private long encode(long start, ByteBuffer chunk) throws IOException {
+        char[] block = new char[8192];
+        long position = start;
+        encoder.reset();
+        while (position < reader.getLength()) {
+            int count = reader.read(position, block);
+            if (count == 0) {
+                break;
+            }
+            CharBuffer chars = CharBuffer.wrap(block, 0, count);
+            encoder.encode(chars, chunk, position + count >= reader.getLength());
+            position += chars.position();
+            if (chars.hasRemaining()) {
+                // the chunk is full
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static String checksum(ByteBuffer chunk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(chunk.array(), 0, chunk.remaining());
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // required to be available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
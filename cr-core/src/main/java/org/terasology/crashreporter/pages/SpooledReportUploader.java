@@ -0,0 +1,78 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Uploads the reports of a {@link ReportSpool} to the target they were meant for. A report is uploaded like a
+ * single log, so large reports are split into several pastes (see {@link PastebinReportUpload}) or sent in chunks
+ * (see {@link HostedReportUpload}). The report is streamed from the queue into a temporary file for that,
+ * it is never held in memory.
+ */
+public class SpooledReportUploader implements ReportSpool.Uploader {
+
+    private final GlobalProperties properties;
+    private final CloseableHttpClient client;
+    private final UploadCache cache;
+
+    /**
+     * @param properties the properties that configure the uploads
+     * @param client     the (shared) client that is used for the uploads
+     * @param cache      remembers the last upload of every log, or <code>null</code>
+     */
+    public SpooledReportUploader(GlobalProperties properties, CloseableHttpClient client, UploadCache cache) {
+        this.properties = properties;
+        this.client = client;
+        this.cache = cache;
+    }
+
+    @Override
+    public URL upload(final ReportSpool.Report report) throws Exception {
+        Attachment log = new Attachment(report.getFileName(), new Supplier<String>() {
+            @Override
+            public String get() {
+                // only used if the report cannot be read from the queue, which means it is damaged
+                throw new UncheckedIOException(new IOException("Cannot read spooled report " + report));
+            }
+        }, new Callable<InputStream>() {
+            @Override
+            public InputStream call() throws IOException {
+                return report.openContent();
+            }
+        });
+        List<Attachment> logs = Collections.singletonList(log);
+        RetryingCallable.Listener listener = new RetryingCallable.Listener() {
+            @Override
+            public void retrying(int attempt, long delay, Exception cause) {
+                System.err.println("Upload of spooled report " + report + " failed, retrying in " + delay + " ms: " + cause);
+            }
+        };
+        try {
+            if (ReportSpool.PASTEBIN.equals(report.getTarget())) {
+                return new PastebinReportUpload(properties, client, "", logs, cache, listener, new UploadMonitor()).call();
+            }
+            return new HostedReportUpload(properties, client, URI.create(report.getTarget()), "", logs, cache, listener,
+                    new UploadMonitor()).call();
+        } finally {
+            log.close();
+        }
+    }
+}
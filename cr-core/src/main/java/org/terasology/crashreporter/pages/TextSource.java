@@ -0,0 +1,28 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import java.io.IOException;
+
+/**
+ * The text of a log that is uploaded. It is copied in blocks, so that it is never held in memory at once.
+ * Reads are mostly sequential, but an interrupted upload may go back to an earlier offset.
+ * <p>
+ * Surrogate pairs are never split between two blocks.
+ */
+interface TextSource {
+
+    /**
+     * @return the number of characters that can be read
+     */
+    long getLength();
+
+    /**
+     * @param offset the offset of the first character
+     * @param block  receives the characters, must have room for at least two
+     * @return the number of characters that were copied, 0 at the end or if the text was shortened in the meantime
+     * @throws IOException if the text cannot be read
+     */
+    int read(long offset, char[] block) throws IOException;
+}
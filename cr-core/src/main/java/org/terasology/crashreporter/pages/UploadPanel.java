@@ -3,17 +3,28 @@
 
 package org.terasology.crashreporter.pages;
 
+import org.terasology.crashreporter.CrashReporter;
 import org.terasology.crashreporter.GlobalProperties;
 import org.terasology.crashreporter.GlobalProperties.KEY;
 import org.terasology.crashreporter.I18N;
 import org.terasology.crashreporter.Resources;
+import org.terasology.crashreporter.upload.Attachment;
+import org.terasology.crashreporter.upload.ReportSpool;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.SharedHttpClient;
+import org.terasology.crashreporter.upload.Throttle;
+import org.terasology.crashreporter.upload.UploadCache;
+import org.terasology.crashreporter.upload.UploadLimitException;
+import org.terasology.crashreporter.upload.UploadMonitor;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import java.awt.BorderLayout;
 import java.awt.Cursor;
@@ -27,7 +38,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.function.Supplier;
 
 /**
@@ -37,13 +51,27 @@ public class UploadPanel extends JPanel {
 
     private static final long serialVersionUID = -8247883237201535146L;
 
+    private static final long DEFAULT_RETRIES = 5;
+
+    private static final long DEFAULT_RATE_LIMIT_CRASH = 0;
+
+    private static final long DEFAULT_RATE_LIMIT_ISSUE = 256;
+
+    /**
+     * The time between two updates of the progress bar in milliseconds
+     */
+    private static final int PROGRESS_INTERVAL = 250;
+
     private JButton uploadPasteBinButton;
+    private JButton uploadHostedButton;
     private boolean isComplete;
     private URL uploadURL;
 
     private JLabel statusLabel;
 
-    private final Supplier<String> textSupplier;
+    private final Supplier<String> userInfoSupplier;
+
+    private final Supplier<List<Attachment>> logsSupplier;
 
     private final Supplier<String> logFileNameSupplier;
 
@@ -51,10 +79,59 @@ public class UploadPanel extends JPanel {
 
     private JLabel titleLabel;
 
-    public UploadPanel(GlobalProperties properties, Supplier<String> logTextSupp, Supplier<String> logFileNameSupp) {
+    private final int maxRetries;
+
+    private final long rateLimit;
+
+    private final boolean lowPriority;
+
+    private final ReportSpool spool;
+
+    private final UploadCache cache;
+
+    private final JPanel progressPanel;
 
-        this.textSupplier = logTextSupp;
+    private final JProgressBar progressBar;
+
+    private final JButton cancelButton;
+
+    private final Timer progressTimer;
+
+    private UploadMonitor monitor;
+
+    private Thread uploadThread;
+
+    private long lastSent;
+
+    private long lastTime;
+
+    private double rate;
+
+    /**
+     * @param properties      the properties for this dialog wizard
+     * @param userInfoSupp    provides the user message
+     * @param logsSupp        provides all log files, which are uploaded separately if there is more than one
+     * @param logFileNameSupp provides the name of the log file
+     * @param spool           keeps reports that cannot be uploaded now or <code>null</code>
+     * @param cache           the links of earlier uploads or <code>null</code>
+     * @param mode            crash reporter, issue reporter or feedback window
+     */
+    public UploadPanel(final GlobalProperties properties, Supplier<String> userInfoSupp,
+                       Supplier<List<Attachment>> logsSupp, Supplier<String> logFileNameSupp,
+                       ReportSpool spool, UploadCache cache, CrashReporter.MODE mode) {
+
+        this.spool = spool;
+        this.cache = cache;
+        this.userInfoSupplier = userInfoSupp;
+        this.logsSupplier = logsSupp;
         this.logFileNameSupplier = logFileNameSupp;
+        this.maxRetries = (int) Math.max(0, properties.getLong(KEY.UPLOAD_RETRIES, DEFAULT_RETRIES));
+        // the game is still running unless it crashed - the upload must not make it (or its players) lag
+        this.lowPriority = mode != CrashReporter.MODE.CRASH_REPORTER;
+        long rateLimitKb = lowPriority
+                ? properties.getLong(KEY.UPLOAD_RATE_LIMIT_ISSUE, DEFAULT_RATE_LIMIT_ISSUE)
+                : properties.getLong(KEY.UPLOAD_RATE_LIMIT_CRASH, DEFAULT_RATE_LIMIT_CRASH);
+        this.rateLimit = Math.max(0, rateLimitKb) * 1024;
         setLayout(new BorderLayout(50, 20));
         statusLabel = new JLabel(I18N.getMessage("noUpload"), SwingConstants.RIGHT);
         statusLabel.setFont(statusLabel.getFont().deriveFont(Font.BOLD));
@@ -73,14 +150,47 @@ public class UploadPanel extends JPanel {
             @Override
             public void actionPerformed(ActionEvent e) {
                 statusLabel.setText(I18N.getMessage("waitForUpload"));
-                uploadPasteBinButton.setEnabled(false);
-
-                String text = textSupplier.get();
-                upload(new PastebinUploadRunnable(text));
+                setUploadButtonsEnabled(false);
+
+                UploadMonitor uploadMonitor = new UploadMonitor();
+                List<Attachment> logs = logsSupplier.get();
+                PastebinReportUpload report = new PastebinReportUpload(properties, SharedHttpClient.get(properties),
+                        userInfoSupplier.get(), logs, cache, new RetryingCallable.Listener() {
+                            @Override
+                            public void retrying(int attempt, long delay, Exception cause) {
+                                showRetry(attempt, delay, cause);
+                            }
+                        }, uploadMonitor);
+                upload(report, uploadMonitor, ReportSpool.PASTEBIN, report, logs);
             }
         });
         hosterPanel.add(uploadPasteBinButton);
 
+        final URI hostedUri = HostedReportUpload.getServerUri(properties);
+        if (hostedUri != null) {
+            uploadHostedButton = new JButton(hostedUri.getHost(), Resources.loadIcon(properties.get(KEY.RES_SERVER_ICON)));
+            uploadHostedButton.setFont(buttonFont);
+            uploadHostedButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    statusLabel.setText(I18N.getMessage("waitForUpload"));
+                    setUploadButtonsEnabled(false);
+
+                    UploadMonitor uploadMonitor = new UploadMonitor();
+                    List<Attachment> logs = logsSupplier.get();
+                    HostedReportUpload report = new HostedReportUpload(properties, SharedHttpClient.get(properties),
+                            hostedUri, userInfoSupplier.get(), logs, cache, new RetryingCallable.Listener() {
+                                @Override
+                                public void retrying(int attempt, long delay, Exception cause) {
+                                    showRetry(attempt, delay, cause);
+                                }
+                            }, uploadMonitor);
+                    upload(report, uploadMonitor, report.getTarget(), report, logs);
+                }
+            });
+            hosterPanel.add(uploadHostedButton);
+        }
+
         uploadSkipButton = new JButton(I18N.getMessage("skipUpload"),
                 Resources.loadIcon(properties.get(KEY.RES_SKIP_UPLOAD_ICON)));
         uploadSkipButton.addActionListener(new ActionListener() {
@@ -95,7 +205,37 @@ public class UploadPanel extends JPanel {
         hosterPanel.add(uploadSkipButton);
 
         add(hosterPanel, BorderLayout.CENTER);
-        add(statusLabel, BorderLayout.SOUTH);
+
+        progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        cancelButton = new JButton(I18N.getMessage("uploadCancel"));
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelButton.setEnabled(false);
+                // aborts the running request and stops waiting for the next retry
+                monitor.cancel();
+                uploadThread.interrupt();
+            }
+        });
+        progressPanel = new JPanel(new BorderLayout(5, 0));
+        progressPanel.setBorder(new EmptyBorder(0, 5, 0, 5));
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        progressPanel.setVisible(false);
+
+        // polling the monitor limits the updates of the progress bar, no matter how fast the upload is
+        progressTimer = new Timer(PROGRESS_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updateProgress();
+            }
+        });
+
+        JPanel statusPanel = new JPanel(new BorderLayout(0, 5));
+        statusPanel.add(progressPanel, BorderLayout.NORTH);
+        statusPanel.add(statusLabel, BorderLayout.SOUTH);
+        add(statusPanel, BorderLayout.SOUTH);
     }
 
     @Override
@@ -119,22 +259,130 @@ public class UploadPanel extends JPanel {
         return uploadURL;
     }
 
-    private void upload(final Callable<URL> callable) {
+    /**
+     * @param callable      the upload
+     * @param uploadMonitor the monitor of the upload task
+     * @param target        where the upload goes to, see {@link ReportSpool.Report#getTarget()}
+     * @param content       the uploaded text, spooled if the upload fails for a transient reason
+     * @param logs          the uploaded logs, they are closed afterwards
+     */
+    private void upload(final Callable<URL> callable, final UploadMonitor uploadMonitor, final String target,
+                        final ReportSpool.Content content, final List<Attachment> logs) {
         Runnable runnable = new Runnable() {
 
             @Override
             public void run() {
                 try {
-                    URL link = callable.call();
-                    uploadSuccess(link);
+                    uploadSuccess(callable.call());
                 } catch (Exception e) {
-                    uploadFailed(e);
+                    if (uploadMonitor.isCancelled() || e instanceof CancellationException) {
+                        uploadCancelled();
+                    } else if (spool(e, target, content)) {
+                        uploadSpooled();
+                    } else {
+                        uploadFailed(e);
+                    }
+                } finally {
+                    Attachment.closeAll(logs);
                 }
             }
         };
 
-        Thread thread = new Thread(runnable, "Upload");
-        thread.start();
+        if (rateLimit > 0) {
+            uploadMonitor.setThrottle(new Throttle(rateLimit));
+        }
+        monitor = uploadMonitor;
+        uploadThread = new Thread(runnable, "Upload");
+        if (lowPriority) {
+            // hashing, encoding and compression happen on this thread and the part threads it creates
+            uploadThread.setPriority(Thread.MIN_PRIORITY);
+        }
+        startProgress();
+        uploadThread.start();
+    }
+
+    private void startProgress() {
+        lastSent = 0;
+        lastTime = System.nanoTime();
+        rate = 0;
+        progressBar.setValue(0);
+        progressBar.setString("");
+        cancelButton.setEnabled(true);
+        progressPanel.setVisible(true);
+        progressTimer.start();
+    }
+
+    private void stopProgress() {
+        progressTimer.stop();
+        progressPanel.setVisible(false);
+    }
+
+    private void updateProgress() {
+        long sent = monitor.getSent();
+        long total = monitor.getTotal();
+        long now = System.nanoTime();
+        if (sent >= lastSent && now > lastTime) {
+            // smooth the throughput, so the remaining time does not jump around
+            double current = (sent - lastSent) * 1e9 / (now - lastTime);
+            rate = rate == 0 ? current : 0.8 * rate + 0.2 * current;
+        }
+        lastSent = sent;
+        lastTime = now;
+
+        if (total > 0) {
+            progressBar.setIndeterminate(false);
+            progressBar.setValue((int) (Math.min(sent, total) * 1000 / total));
+            String remaining = formatTime(rate > 0 ? (long) ((total - Math.min(sent, total)) / rate) : -1);
+            progressBar.setString(I18N.getMessage("uploadProgress",
+                    formatSize(sent), formatSize(total), formatSize((long) rate), remaining));
+        } else {
+            progressBar.setIndeterminate(true);
+            progressBar.setString(I18N.getMessage("uploadProgressUnknown", formatSize(sent), formatSize((long) rate)));
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB"};
+        double value = bytes / 1024.0;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    private static String formatTime(long seconds) {
+        if (seconds < 0) {
+            return "--:--";
+        }
+        return String.format(Locale.ROOT, "%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Keeps the report on disk if the upload may succeed later, e.g. because the machine is offline.
+     * @return true if the report was spooled
+     */
+    private boolean spool(Exception failure, String target, ReportSpool.Content content) {
+        if (spool == null || !RetryingCallable.isTransient(failure)) {
+            return false;
+        }
+        try {
+            return spool.add(target, logFileNameSupplier.get(), content);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void setUploadButtonsEnabled(boolean enabled) {
+        uploadPasteBinButton.setEnabled(enabled);
+        if (uploadHostedButton != null) {
+            uploadHostedButton.setEnabled(enabled);
+        }
     }
 
     private void updateStatus() {
@@ -153,15 +401,44 @@ public class UploadPanel extends JPanel {
         }
     }
 
+    private void showRetry(final int attempt, final long delay, final Exception cause) {
+        SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                long seconds = (delay + 999) / 1000;
+                statusLabel.setText(I18N.getMessage("uploadRetry", seconds, attempt, maxRetries));
+                statusLabel.setToolTipText(cause.getLocalizedMessage());
+            }
+        });
+    }
+
     private void uploadSuccess(final URL link) {
         SwingUtilities.invokeLater(new Runnable() {
 
             @Override
             public void run() {
+                stopProgress();
                 uploadURL = link;
+                statusLabel.setToolTipText(null);
                 updateStatus();
                 uploadSkipButton.setEnabled(false);
-                uploadPasteBinButton.setEnabled(true);
+                setUploadButtonsEnabled(true);
+                firePropertyChange("pageComplete", Boolean.FALSE, Boolean.TRUE);
+                isComplete = true;
+            }
+        });
+    }
+
+    private void uploadSpooled() {
+        SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                stopProgress();
+                statusLabel.setText(I18N.getMessage("uploadSpooled"));
+                statusLabel.setToolTipText(null);
+                setUploadButtonsEnabled(true);
                 firePropertyChange("pageComplete", Boolean.FALSE, Boolean.TRUE);
                 isComplete = true;
             }
@@ -173,14 +450,34 @@ public class UploadPanel extends JPanel {
 
             @Override
             public void run() {
+                stopProgress();
                 String uploadFailed = I18N.getMessage("uploadFailed");
-                JOptionPane.showMessageDialog(null, e.getLocalizedMessage(), uploadFailed, JOptionPane.ERROR_MESSAGE);
-                uploadPasteBinButton.setEnabled(true);
+                String message = e.getLocalizedMessage();
+                if (e instanceof UploadLimitException) {
+                    // e.g. the daily paste limit - retrying right away does not help
+                    message = I18N.getMessage("uploadLimit", message);
+                }
+                JOptionPane.showMessageDialog(null, message, uploadFailed, JOptionPane.ERROR_MESSAGE);
+                setUploadButtonsEnabled(true);
+                statusLabel.setToolTipText(null);
                 updateStatus();
             }
         });
     }
 
+    private void uploadCancelled() {
+        SwingUtilities.invokeLater(new Runnable() {
+
+            @Override
+            public void run() {
+                stopProgress();
+                statusLabel.setText(I18N.getMessage("uploadCancelled"));
+                statusLabel.setToolTipText(null);
+                setUploadButtonsEnabled(true);
+            }
+        });
+    }
+
     private static void openInBrowser(String url) {
         if (Desktop.isDesktopSupported()) {
             Desktop desktop = Desktop.getDesktop();
@@ -21,6 +21,7 @@ import javax.swing.event.DocumentListener;
 import java.awt.BorderLayout;
 import java.awt.Font;
 import java.nio.file.Path;
+import java.util.function.Supplier;
 
 /**
  * The panel that requests some additional info from the user
@@ -32,16 +33,13 @@ public class UserInfoPanel extends JPanel {
     private final JTextArea userMessageArea;
     private JLabel statusLabel;
 
-    private String log;
-    private final Path logFile;
+    private final Supplier<Path> logFile;
 
     /**
-     * @param log     the current contents of the log file
-     * @param logFile the location of the relevant file
+     * @param logFile provides the location of the relevant file
      * @param properties    the properties for this dialog wizard
      */
-    public UserInfoPanel(GlobalProperties properties, String log, Path logFile) {
-        this.log = log;
+    public UserInfoPanel(GlobalProperties properties, Supplier<Path> logFile) {
         this.logFile = logFile;
 
         setLayout(new BorderLayout(0, 5));
@@ -119,23 +117,14 @@ public class UserInfoPanel extends JPanel {
         });
     }
 
-    public String getLog() {
-        if (isEmpty()) {
-            return log;
-        } else {
-            // probably don't want to apply i18n to this
-            return new StringBuilder("USER-GIVEN INFO:")
-                    .append("\n")
-                    .append(userMessageArea.getText())
-                    .append("\n\n")
-                    .append("ERROR STACK TRACE:")
-                    .append("\n")
-                    .append(log)
-                    .toString();
-        }
+    /**
+     * @return the message of the user, may be empty
+     */
+    public String getUserInfo() {
+        return userMessageArea.getText();
     }
 
     public Path getLogFile() {
-        return logFile;
+        return logFile.get();
     }
 }
@@ -0,0 +1,159 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+
+/**
+ * Decodes a range of a UTF-8 file in blocks, e.g. a log that is uploaded from its file.
+ * Only a small buffer is held in memory, no matter how large the file is.
+ * <p>
+ * Character offsets cannot be mapped to file positions without decoding the file, so the file position of
+ * every {@link #CHECKPOINT_CHARS}th character is remembered while reading. Going back to an earlier offset, e.g.
+ * to resume an upload, decodes the file again from the closest checkpoint before it.
+ * <p>
+ * The number of characters is known only once the end was read, {@link #getLength()} reads the rest of
+ * the file then. The file is opened for every block, so no file stays open.
+ */
+final class Utf8FileReader implements TextSource {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long CHECKPOINT_CHARS = 1 << 20;
+
+    private final Path file;
+    private final long end;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The file positions of some character offsets
+     */
+    private final TreeMap<Long, Long> checkpoints = new TreeMap<>();
+
+    private long readPosition;
+    private long charPosition;
+    private boolean endOfInput;
+    private boolean finished;
+    private long length = -1;
+
+    /**
+     * @param file   the UTF-8 encoded file
+     * @param offset the position of the first byte of the text
+     * @param length the number of bytes of the text
+     */
+    Utf8FileReader(Path file, long offset, long length) {
+        this.file = file;
+        this.end = offset + length;
+        checkpoints.put(0L, offset);
+        seek(0);
+    }
+
+    @Override
+    public synchronized long getLength() {
+        if (length < 0) {
+            try {
+                char[] block = new char[BUFFER_SIZE];
+                while (read(charPosition, block) > 0) {
+                    // counts the characters
+                }
+            } catch (IOException e) {
+                // also noticed by the next read
+                e.printStackTrace();
+                return charPosition;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized int read(long offset, char[] block) throws IOException {
+        if (offset != charPosition) {
+            if (length >= 0 && offset >= length) {
+                return 0;
+            }
+            seek(checkpoints.floorKey(offset));
+            // offsets are never inside of surrogate pairs, as they are not split between blocks
+            char[] skipped = new char[Math.min(BUFFER_SIZE, block.length)];
+            while (charPosition < offset) {
+                int count = decode(skipped, (int) Math.min(skipped.length, offset - charPosition));
+                if (count == 0) {
+                    return 0;
+                }
+            }
+        }
+        int count = decode(block, block.length);
+        if (charPosition - checkpoints.lastKey() >= CHECKPOINT_CHARS) {
+            checkpoints.put(charPosition, readPosition - bytes.remaining());
+        }
+        return count;
+    }
+
+    private void seek(long offset) {
+        charPosition = offset;
+        readPosition = checkpoints.get(offset);
+        bytes.clear();
+        bytes.flip();
+        decoder.reset();
+        endOfInput = false;
+        finished = false;
+    }
+
+    /**
+     * Surrogate pairs are decoded at once, so they are never split.
+     * @return the number of decoded characters, 0 at the end
+     */
+    private int decode(char[] block, int max) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(block, 0, max);
+        while (!finished && chars.position() == 0) {
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (endOfInput) {
+                decoder.flush(chars);
+                finished = true;
+            } else {
+                refill();
+            }
+        }
+        charPosition += chars.position();
+        if (finished && length < 0) {
+            length = charPosition;
+        }
+        return chars.position();
+    }
+
+    private void refill() throws IOException {
+        bytes.compact();
+        int room = (int) Math.min(bytes.remaining(), end - readPosition);
+        if (room <= 0) {
+            endOfInput = true;
+        } else {
+            bytes.limit(bytes.position() + room);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (bytes.hasRemaining()) {
+                    int count = channel.read(bytes, readPosition);
+                    if (count < 0) {
+                        throw new IOException("Unexpected end of file " + file);
+                    }
+                    readPosition += count;
+                }
+            }
+        }
+        bytes.flip();
+    }
+}
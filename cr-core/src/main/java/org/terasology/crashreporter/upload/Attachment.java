@@ -0,0 +1,264 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import com.google.common.io.ByteStreams;
+
+import org.terasology.crashreporter.logs.LogDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * A log file that is part of a report. The content is read only when it is uploaded,
+ * so that creating an attachment is cheap.
+ * <p>
+ * Logs that were not edited can be uploaded straight from their file instead,
+ * without holding their content in memory, see {@link #getFile()}. Logs that are compressed, not UTF-8 encoded,
+ * or that start with a byte order mark or contain malformed bytes are decoded into a temporary file for that,
+ * which is deleted by {@link #close()}.
+ */
+public final class Attachment implements Closeable {
+
+    private static final int CHECK_BLOCK_SIZE = 64 * 1024;
+
+    private final String name;
+    private final Supplier<String> content;
+    private final Callable<InputStream> source;
+    private Path file;
+    private long fileOffset;
+    private long fileLength;
+    private Path decodedFile;
+    private boolean fileChecked;
+
+    /**
+     * @param name    the name of the log, e.g. its path relative to the log folder
+     * @param content provides the (edited) content of the log
+     */
+    public Attachment(String name, Supplier<String> content) {
+        this(name, content, null, 0, 0);
+    }
+
+    /**
+     * @param name       the name of the log, e.g. its path relative to the log folder
+     * @param content    provides the (edited) content of the log
+     * @param file       the uncompressed log file if its content was not edited, otherwise <code>null</code>
+     * @param fileOffset the offset of the first byte of the file that belongs to this attachment
+     * @param fileLength the number of bytes of the file that belong to this attachment, e.g. its length now -
+     *                   lines that are written later are not uploaded
+     */
+    public Attachment(String name, Supplier<String> content, Path file, long fileOffset, long fileLength) {
+        this.name = name;
+        this.content = content;
+        this.source = null;
+        this.file = file;
+        this.fileOffset = fileOffset;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * @param name    the name of the log, e.g. its path relative to the log folder
+     * @param content provides the content of the log if the source cannot be read
+     * @param source  opens the uncompressed log, e.g. a log in an archive
+     */
+    public Attachment(String name, Supplier<String> content, Callable<InputStream> source) {
+        this.name = name;
+        this.content = content;
+        this.source = source;
+    }
+
+    /**
+     * Closes the attachments, see {@link #close()}.
+     * @param attachments the attachments
+     */
+    public static void closeAll(List<Attachment> attachments) {
+        for (Attachment attachment : attachments) {
+            attachment.close();
+        }
+    }
+
+    /**
+     * @return the name of the log
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the (edited) content of the log
+     */
+    public String getContent() {
+        return content.get();
+    }
+
+    /**
+     * Reads the file the first time it is called. Logs that are not plain UTF-8 - anywhere in the file,
+     * not just at its beginning - or that are read from a stream are decoded into a temporary UTF-8 file then.
+     * @return the log file if it can be uploaded as it is, i.e. it was not edited, otherwise <code>null</code>
+     */
+    public synchronized Path getFile() {
+        if (!fileChecked) {
+            fileChecked = true;
+            try {
+                if (file != null) {
+                    // the upload is always UTF-8 - other charsets, a byte order mark and malformed bytes
+                    // further into the file are decoded, malformed bytes are replaced
+                    if (!StandardCharsets.UTF_8.equals(LogDecoder.detect(file, Charset.defaultCharset()))
+                            || !isPlainUtf8()) {
+                        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(fileOffset);
+                        decode(ByteStreams.limit(Channels.newInputStream(channel), fileLength));
+                    }
+                } else if (source != null) {
+                    decode(source.call());
+                }
+            } catch (Exception e) {
+                // read through the content supplier, which reports the problem
+                e.printStackTrace();
+                file = null;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return true if the bytes of the attachment are valid UTF-8 and do not start with a byte order mark,
+     * so that they can be uploaded as they are
+     */
+    private boolean isPlainUtf8() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(fileOffset);
+            ByteBuffer bytes = ByteBuffer.allocate(CHECK_BLOCK_SIZE);
+            CharBuffer chars = CharBuffer.allocate(CHECK_BLOCK_SIZE);
+            CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder();
+            long remaining = fileLength;
+            boolean head = fileOffset == 0;
+            while (true) {
+                bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + remaining));
+                int count = channel.read(bytes);
+                if (count > 0) {
+                    remaining -= count;
+                }
+                boolean endOfInput = count < 0 || remaining == 0;
+                bytes.flip();
+                if (head && bytes.remaining() >= 3) {
+                    if ((bytes.get(0) & 0xFF) == 0xEF && (bytes.get(1) & 0xFF) == 0xBB && (bytes.get(2) & 0xFF) == 0xBF) {
+                        return false;
+                    }
+                    head = false;
+                }
+                // UTF-8 never decodes to more chars than bytes, so the chars always fit
+                if (strict.decode(bytes, chars, endOfInput).isError()) {
+                    return false;
+                }
+                if (endOfInput) {
+                    return true;
+                }
+                chars.clear();
+                bytes.compact();
+            }
+        }
+    }
+
+    private void decode(InputStream in) throws IOException {
+        decodedFile = Files.createTempFile("crashreporter-", ".log");
+        decodedFile.toFile().deleteOnExit();
+        try (LogDecoder decoder = new LogDecoder(in, Charset.defaultCharset());
+             OutputStream out = Files.newOutputStream(decodedFile)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            String chunk = decoder.read();
+            while (chunk != null) {
+                writer.write(chunk);
+                chunk = decoder.read();
+            }
+            writer.flush();
+        }
+        file = decodedFile;
+        fileOffset = 0;
+        fileLength = Files.size(decodedFile);
+    }
+
+    /**
+     * @return the offset of the first byte of the file that is uploaded
+     */
+    public synchronized long getFileOffset() {
+        getFile();
+        return fileOffset;
+    }
+
+    /**
+     * @return the number of bytes of the file that are uploaded
+     */
+    public synchronized long getFileLength() {
+        getFile();
+        return fileLength;
+    }
+
+    /**
+     * Writes the log as UTF-8, straight from its file if possible.
+     * @param out receives the log, it is not closed
+     * @throws IOException if the log cannot be read or written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Path path = getFile();
+        if (path != null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = getFileOffset();
+                long end = position + getFileLength();
+                while (position < end) {
+                    long count = channel.transferTo(position, end - position, target);
+                    if (count <= 0) {
+                        break;
+                    }
+                    position += count;
+                }
+            }
+            return;
+        }
+        try {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write(getContent());
+            writer.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Deletes the temporary file that the log was decoded into, if any.
+     */
+    @Override
+    public synchronized void close() {
+        if (decodedFile != null) {
+            try {
+                Files.deleteIfExists(decodedFile);
+            } catch (IOException e) {
+                // still deleted on exit
+                e.printStackTrace();
+            }
+            decodedFile = null;
+            file = null;
+            fileChecked = true;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import java.net.URL;
+import java.util.concurrent.Callable;
+
+/**
+ * Returns the link of an earlier upload of the same content from an {@link UploadCache}
+ * and uploads the content only if there is none.
+ */
+public final class CachedUpload implements Callable<URL> {
+
+    private final UploadCache cache;
+    private final String target;
+    private final String hash;
+    private final Callable<URL> upload;
+
+    /**
+     * @param cache  the cache or <code>null</code> to always upload
+     * @param target where the content is uploaded to, see {@link ReportSpool.Report#getTarget()}
+     * @param hash   the hash of the uploaded content, see {@link ContentHash}
+     * @param upload uploads the content
+     */
+    public CachedUpload(UploadCache cache, String target, String hash, Callable<URL> upload) {
+        this.cache = cache;
+        this.target = target;
+        this.hash = hash;
+        this.upload = upload;
+    }
+
+    @Override
+    public URL call() throws Exception {
+        if (cache == null) {
+            return upload.call();
+        }
+        // the same log (e.g. of the same crash) was probably uploaded before
+        URL link = cache.get(target, hash);
+        if (link == null) {
+            link = upload.call();
+            cache.put(target, hash, link);
+        }
+        return link;
+    }
+}
@@ -0,0 +1,187 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the SHA-256 hash of the UTF-8 encoding of a text, block by block, without
+ * encoding the complete text at once.
+ * <p>
+ * The hash of the beginning of the text can be computed in the same pass, e.g. to check whether
+ * a log only grew since it was uploaded the last time.
+ */
+public final class ContentHash {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final MessageDigest digest;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+    private final long prefixLength;
+    private long length;
+    private long chars;
+    private String prefixHash;
+    private long prefixChars = -1;
+    private boolean prefixMissed;
+
+    public ContentHash() {
+        this(-1);
+    }
+
+    /**
+     * @param prefixLength the number of UTF-8 bytes at the beginning of the text to hash separately, or -1
+     */
+    public ContentHash(long prefixLength) {
+        this.prefixLength = prefixLength;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // required to be available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param text the text
+     * @return the hash of the text as hex string
+     */
+    public static String of(CharSequence text) {
+        ContentHash hash = new ContentHash();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + BLOCK_SIZE);
+            // keep surrogate pairs together
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            hash.update(CharBuffer.wrap(text, start, end));
+            start = end;
+        }
+        return hash.finish();
+    }
+
+    /**
+     * @param header a text that precedes the file content
+     * @param file   a UTF-8 encoded file
+     * @param offset the offset of the first byte of the file to include
+     * @param length the number of bytes of the file to include
+     * @return the hash of the header and the file content as hex string
+     * @throws IOException if the file cannot be read or is too short
+     */
+    public static String of(CharSequence header, Path file, long offset, long length) throws IOException {
+        ContentHash hash = new ContentHash();
+        hash.update(CharBuffer.wrap(header));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the file is UTF-8 already, so its bytes are hashed as they are
+            ByteBuffer block = hash.bytes;
+            long position = offset;
+            while (position < offset + length) {
+                block.limit((int) Math.min(block.capacity(), offset + length - position));
+                int count = channel.read(block, position);
+                if (count < 0) {
+                    throw new EOFException("Truncated: " + file);
+                }
+                position += count;
+                block.flip();
+                hash.length += block.remaining();
+                hash.digest.update(block);
+                block.clear();
+            }
+        }
+        return hash.finish();
+    }
+
+    /**
+     * @param chars the next characters of the text, a surrogate pair must not be split between two calls
+     */
+    public void update(char[] chars, int offset, int length) {
+        update(CharBuffer.wrap(chars, offset, length));
+    }
+
+    private void update(CharBuffer text) {
+        while (text.hasRemaining()) {
+            int start = text.position();
+            boolean beforePrefixEnd = length < prefixLength && !prefixMissed;
+            if (beforePrefixEnd) {
+                // stop exactly at the end of the prefix
+                bytes.limit((int) Math.min(bytes.capacity(), prefixLength - length));
+            }
+            // each block is complete, so there is no state to keep between blocks
+            encoder.encode(text, bytes, true);
+            bytes.flip();
+            length += bytes.remaining();
+            chars += text.position() - start;
+            digest.update(bytes);
+            bytes.clear();
+            if (beforePrefixEnd && length == prefixLength) {
+                prefixHash = toHex(cloneDigest().digest());
+                prefixChars = chars;
+            } else if (beforePrefixEnd && text.position() == start) {
+                // the prefix ends within a character, so it cannot be the same text
+                prefixMissed = true;
+            }
+        }
+        encoder.reset();
+    }
+
+    private MessageDigest cloneDigest() {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            // the SHA-256 digests of the JDK support it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of all characters so far
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hash of the prefix as hex string, or <code>null</code> if the text is shorter
+     * or the prefix ends within a character
+     */
+    public String getPrefixHash() {
+        return prefixHash;
+    }
+
+    /**
+     * @return the number of characters of the prefix, or -1 if its hash is not known
+     */
+    public long getPrefixChars() {
+        return prefixChars;
+    }
+
+    /**
+     * @return the hash of all characters as hex string
+     */
+    public String finish() {
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
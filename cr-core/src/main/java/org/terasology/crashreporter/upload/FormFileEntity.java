@@ -0,0 +1,157 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * URL encoded form data where the value of the last field is a text followed by the content of a UTF-8 file.
+ * The file is encoded block by block while it is sent, so it is never held in memory as a whole.
+ * <p>
+ * Only the given number of bytes of the file are sent, so a log file that is still written to
+ * does not change the length of the request.
+ */
+public final class FormFileEntity extends AbstractHttpEntity {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final byte[] head;
+    private final Path file;
+    private final long fileOffset;
+    private final long fileLength;
+    private final long contentLength;
+
+    /**
+     * Reads the file once to compute the length of the encoded form.
+     * @param fields     the other fields of the form
+     * @param fileField  the name of the field that contains the file
+     * @param header     the text that precedes the file content
+     * @param file       the UTF-8 encoded file
+     * @param fileOffset the offset of the first byte of the file that is sent
+     * @param fileLength the number of bytes of the file that are sent
+     * @throws IOException if the file cannot be read or is too short
+     */
+    public FormFileEntity(List<NameValuePair> fields, String fileField, String header, Path file, long fileOffset,
+                          long fileLength) throws IOException {
+        List<NameValuePair> all = new ArrayList<>(fields);
+        all.add(new BasicNameValuePair(fileField, header));
+        this.head = URLEncodedUtils.format(all, StandardCharsets.UTF_8).getBytes(StandardCharsets.US_ASCII);
+        this.file = file;
+        this.fileOffset = fileOffset;
+        this.fileLength = fileLength;
+        this.contentLength = head.length + encodedLength();
+        setContentType(ContentType.create(URLEncodedUtils.CONTENT_TYPE, StandardCharsets.UTF_8).toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // only used by code that inspects entities - the upload itself uses writeTo
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+        byte[] encoded = new byte[BLOCK_SIZE * 3];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            long position = fileOffset;
+            while (position < fileOffset + fileLength) {
+                position += read(channel, block, position);
+                int count = 0;
+                for (int i = 0; i < block.limit(); i++) {
+                    count = encode(block.get(i), encoded, count);
+                }
+                out.write(encoded, 0, count);
+            }
+        }
+    }
+
+    private long encodedLength() throws IOException {
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            long position = fileOffset;
+            while (position < fileOffset + fileLength) {
+                position += read(channel, block, position);
+                for (int i = 0; i < block.limit(); i++) {
+                    length += isUnreserved(block.get(i)) || block.get(i) == ' ' ? 1 : 3;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads the next block, which is then between 0 and its limit.
+     */
+    private int read(FileChannel channel, ByteBuffer block, long position) throws IOException {
+        block.clear();
+        block.limit((int) Math.min(block.capacity(), fileOffset + fileLength - position));
+        int count = channel.read(block, position);
+        if (count < 0) {
+            throw new EOFException("Truncated: " + file);
+        }
+        block.flip();
+        return count;
+    }
+
+    /**
+     * Encodes like {@link URLEncodedUtils#format(List, java.nio.charset.Charset)} does.
+     */
+    private static int encode(byte b, byte[] encoded, int index) {
+        if (isUnreserved(b)) {
+            encoded[index] = b;
+            return index + 1;
+        }
+        if (b == ' ') {
+            encoded[index] = '+';
+            return index + 1;
+        }
+        encoded[index] = '%';
+        encoded[index + 1] = (byte) Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16));
+        encoded[index + 2] = (byte) Character.toUpperCase(Character.forDigit(b & 0xF, 16));
+        return index + 3;
+    }
+
+    private static boolean isUnreserved(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_' || b == '.' || b == '*';
+    }
+}
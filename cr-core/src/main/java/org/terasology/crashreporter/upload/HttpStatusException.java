@@ -0,0 +1,67 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server answered with an unexpected HTTP status code.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 4139482532385237129L;
+
+    private final int statusCode;
+    private final long retryAfter;
+
+    /**
+     * @param response the response of the server
+     * @param message  the response text or a description of the problem
+     */
+    public HttpStatusException(HttpResponse response, String message) {
+        super(message);
+        this.statusCode = response.getStatusLine().getStatusCode();
+        this.retryAfter = parseRetryAfter(response.getFirstHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    private static long parseRetryAfter(Header header) {
+        if (header != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim()));
+            } catch (NumberFormatException e) {
+                // an HTTP date - not worth the effort
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the time in milliseconds the server asked to wait before trying again, or 0
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return true if the request may succeed if it is sent again later
+     */
+    public boolean isTransient() {
+        return statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+                || statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+                || statusCode == 429; // Too Many Requests
+    }
+}
@@ -0,0 +1,518 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UTFDataFormatException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A queue of reports on disk that could not be uploaded, e.g. because the machine was offline.
+ * They are uploaded later by {@link #drain(Uploader)}, usually from a background thread when the
+ * reporter or the game starts the next time.
+ * <p>
+ * Each report is a separate file that is written once and never modified: it is written to a temporary file,
+ * forced to disk and then atomically renamed into the queue. A crash while writing leaves only a temporary
+ * file behind, which is deleted later. Every file ends with a CRC32 of its content, so that files that were
+ * damaged anyway are recognized and dropped. The text of the report is gzip-compressed.
+ * <p>
+ * The queue is bounded: reports that are older than the maximum age are dropped, and the oldest reports are
+ * dropped to make room for a new one if the queue would exceed its maximum size.
+ */
+public final class ReportSpool {
+
+    /**
+     * The target of reports that are uploaded to Pastebin
+     */
+    public static final String PASTEBIN = "pastebin";
+
+    private static final String DEFAULT_DIRECTORY = "spool";
+    private static final long DEFAULT_MAX_MB = 32;
+    private static final long DEFAULT_MAX_DAYS = 14;
+
+    private static final long MAGIC = 0x435253706f6f6c31L; // "CRSpool1"
+    private static final String REPORT_SUFFIX = ".report";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "spool.lock";
+
+    /**
+     * Temporary files are deleted once they are this old (in milliseconds) - younger ones may still be written
+     */
+    private static final long STALE_TEMP_AGE = 10 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxAge;
+
+    /**
+     * Uploads a report that was taken from the queue.
+     */
+    public interface Uploader {
+
+        /**
+         * @param report the report
+         * @return the URL of the uploaded report
+         * @throws Exception if the upload failed. The report stays in the queue if the failure is
+         *                   transient (see {@link RetryingCallable#isTransient(Exception)}) or an
+         *                   {@link UploadLimitException}, otherwise it is dropped.
+         */
+        URL upload(Report report) throws Exception;
+    }
+
+    /**
+     * The text of a report that is added to the queue. It is written as a stream, so that large logs
+     * are never held in memory at once.
+     */
+    public interface Content {
+
+        /**
+         * @param out receives the UTF-8 encoded text of the report, it must not be closed
+         * @throws IOException if the text cannot be read or written, e.g. because the queue is full
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Thrown while a report is written once it is larger than the queue
+     */
+    private static final class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A report in the queue
+     */
+    public static final class Report {
+        private final Path file;
+        private final long created;
+        private final String target;
+        private final String fileName;
+        private final long payloadStart;
+        private final long payloadLength;
+
+        Report(Path file, long created, String target, String fileName, long payloadStart, long payloadLength) {
+            this.file = file;
+            this.created = created;
+            this.target = target;
+            this.fileName = fileName;
+            this.payloadStart = payloadStart;
+            this.payloadLength = payloadLength;
+        }
+
+        /**
+         * @return the time when the report was added to the queue in milliseconds since the epoch
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return {@link ReportSpool#PASTEBIN} or the address of the server
+         */
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return the name of the log file
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Reads the text of the report from the queue, it is decompressed while it is read.
+         * @return the UTF-8 encoded text of the report, to be closed by the caller
+         * @throws IOException if the report cannot be read
+         */
+        public InputStream openContent() throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(payloadStart);
+            InputStream in = ByteStreams.limit(Channels.newInputStream(channel), payloadLength);
+            try {
+                return new GZIPInputStream(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getFileName().toString();
+        }
+    }
+
+    /**
+     * @param properties    the properties that configure the queue
+     * @param logFileFolder the log file folder or <code>null</code>
+     * @return the queue, or <code>null</code> if no folder for it is known
+     */
+    public static ReportSpool create(GlobalProperties properties, Path logFileFolder) {
+        Path directory = getDirectory(properties, logFileFolder);
+        if (directory == null) {
+            return null;
+        }
+        long maxBytes = properties.getLong(KEY.UPLOAD_SPOOL_MAX_MB, DEFAULT_MAX_MB) << 20;
+        long maxAge = TimeUnit.DAYS.toMillis(properties.getLong(KEY.UPLOAD_SPOOL_MAX_DAYS, DEFAULT_MAX_DAYS));
+        return new ReportSpool(directory, maxBytes, maxAge);
+    }
+
+    /**
+     * @param properties    the properties that configure the queue
+     * @param logFileFolder the log file folder or <code>null</code>
+     * @return the directory of the queue, which also keeps other state of the uploads, or <code>null</code> if it is not known
+     */
+    public static Path getDirectory(GlobalProperties properties, Path logFileFolder) {
+        String dir = properties.get(KEY.UPLOAD_SPOOL_DIR);
+        if (dir != null && !dir.trim().isEmpty()) {
+            return Paths.get(dir.trim());
+        }
+        return logFileFolder != null ? logFileFolder.resolve(DEFAULT_DIRECTORY) : null;
+    }
+
+    /**
+     * @param directory the directory of the queue, it is created when the first report is added
+     * @param maxBytes  the maximum size of all reports in bytes
+     * @param maxAge    the maximum age of a report in milliseconds
+     */
+    public ReportSpool(Path directory, long maxBytes, long maxAge) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Adds a report to the queue. When this method returns, the report is on disk.
+     * @param target   {@link #PASTEBIN} or the address of the server
+     * @param fileName the name of the log file
+     * @param content  the text of the report
+     * @return true if the report was added, false if it is larger than the queue
+     * @throws IOException if it cannot be written
+     */
+    public boolean add(String target, String fileName, final String content) throws IOException {
+        return add(target, fileName, new Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Writer writer = new OutputStreamWriter(out, UTF_8);
+                writer.write(content);
+                writer.flush();
+            }
+        });
+    }
+
+    /**
+     * Adds a report to the queue. When this method returns, the report is on disk.
+     * Writing stops as soon as the compressed report is larger than the queue.
+     * @param target   {@link #PASTEBIN} or the address of the server
+     * @param fileName the name of the log file
+     * @param content  writes the text of the report
+     * @return true if the report was added, false if it is larger than the queue
+     * @throws IOException if it cannot be written
+     */
+    public boolean add(String target, String fileName, Content content) throws IOException {
+        Files.createDirectories(directory);
+        long created = System.currentTimeMillis();
+        // the names sort in the order of creation
+        String name = String.format("%013d-%08x", created, ThreadLocalRandom.current().nextInt());
+        Path temp = directory.resolve(name + TEMP_SUFFIX);
+        try {
+            try {
+                write(temp, created, target, fileName, content);
+            } catch (TooLargeException e) {
+                return false;
+            }
+            long size = Files.size(temp);
+            if (size > maxBytes) {
+                return false;
+            }
+            makeRoom(size);
+            Path file = directory.resolve(name + REPORT_SUFFIX);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file);
+            }
+            forceDirectory();
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void write(Path temp, long created, String target, String fileName, Content content) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            CRC32 crc = new CRC32();
+            BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel));
+            final DataOutputStream data = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+            data.writeLong(MAGIC);
+            data.writeLong(created);
+            data.writeUTF(target);
+            data.writeUTF(fileName);
+
+            GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(data) {
+                @Override
+                public void write(int b) throws IOException {
+                    data.write(b);
+                    checkSize();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    data.write(b, off, len);
+                    checkSize();
+                }
+
+                private void checkSize() throws TooLargeException {
+                    // the compressed size, the rest of the report is not even read then
+                    if (data.size() > maxBytes) {
+                        throw new TooLargeException();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // the checksum is still to be written
+                    flush();
+                }
+            });
+            content.writeTo(gzip);
+            gzip.close();
+
+            new DataOutputStream(buffered).writeInt((int) crc.getValue());
+            buffered.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Makes the rename of the new report durable - not supported on all platforms
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. on Windows, where directories cannot be opened - the rename is durable there anyway
+        }
+    }
+
+    /**
+     * Drops expired reports, and the oldest reports until a new report of the given size fits.
+     */
+    private void makeRoom(long size) throws IOException {
+        long now = System.currentTimeMillis();
+        List<Path> files = listReports();
+        long total = size;
+        for (Path file : files) {
+            total += sizeOf(file);
+        }
+        for (Path file : files) {
+            if (total <= maxBytes && !isExpired(file, now)) {
+                break;
+            }
+            total -= sizeOf(file);
+            System.err.println("Dropping spooled report " + file.getFileName());
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private boolean isExpired(Path file, long now) {
+        String name = file.getFileName().toString();
+        try {
+            return now - Long.parseLong(name.substring(0, name.indexOf('-'))) > maxAge;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return all report files, the oldest first
+     */
+    private List<Path> listReports() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + REPORT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Uploads and removes the reports in the queue, the oldest first. Draining stops at the first transient
+     * failure or limit of the server, as the next reports would most likely fail, too. Nothing happens if another process is
+     * draining the queue at the same time.
+     * <p>
+     * Temporary files of interrupted writes, damaged and expired reports are deleted.
+     * @param uploader uploads a single report
+     * @return the number of reports that were uploaded
+     */
+    public int drain(Uploader uploader) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int uploaded = 0;
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = tryLock(lockChannel)) {
+            if (lock == null) {
+                return 0;
+            }
+            deleteTempFiles();
+            long now = System.currentTimeMillis();
+            for (Path file : listReports()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Report report = isExpired(file, now) ? null : read(file);
+                if (report == null) {
+                    System.err.println("Dropping spooled report " + file.getFileName());
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                try {
+                    URL url = uploader.upload(report);
+                    System.err.println("Uploaded spooled report " + report + " to " + url);
+                    uploaded++;
+                } catch (Exception e) {
+                    if (RetryingCallable.isTransient(e) || e instanceof UploadLimitException) {
+                        // still offline, or no more uploads accepted today - try again next time
+                        break;
+                    }
+                    System.err.println("Dropping spooled report " + report + ": " + e.getMessage());
+                }
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return uploaded;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // drained by another thread of this process
+            return null;
+        }
+    }
+
+    private void deleteTempFiles() throws IOException {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    if (now - Files.getLastModifiedTime(file).toMillis() > STALE_TEMP_AGE) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // completed in the meantime
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the header of a report and checks the checksum of the file, without holding the file in memory.
+     * @return the report or <code>null</code> if the file is damaged
+     */
+    private static Report read(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            long size = Files.size(file);
+            if (size < 20) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            CountingInputStream counting = new CountingInputStream(
+                    new CheckedInputStream(ByteStreams.limit(in, size - 4), crc));
+            DataInputStream data = new DataInputStream(counting);
+            if (data.readLong() != MAGIC) {
+                return null;
+            }
+            long created = data.readLong();
+            String target = data.readUTF();
+            String fileName = data.readUTF();
+            long payloadStart = counting.getCount();
+            ByteStreams.exhaust(counting);
+            if ((int) crc.getValue() != new DataInputStream(in).readInt()) {
+                return null;
+            }
+            return new Report(file, created, target, fileName, payloadStart, size - 4 - payloadStart);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException | UTFDataFormatException e) {
+            // the header is damaged
+            return null;
+        }
+    }
+
+    /**
+     * Drains the queue in a low-priority daemon thread, so the caller never waits for the network.
+     * @param uploader uploads a single report
+     * @return the thread
+     */
+    public Thread drainInBackground(final Uploader uploader) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(uploader);
+            }
+        }, "Report Spool");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+}
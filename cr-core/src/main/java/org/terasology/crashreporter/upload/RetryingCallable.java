@@ -0,0 +1,136 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Calls a task again after transient failures, such as timeouts, dropped connections and
+ * server errors. The delay between two attempts grows exponentially and is randomized
+ * ("full jitter"), so that many clients that failed at the same time do not retry at the same time.
+ * <p>
+ * Tasks that implement {@link Resumable} get a fresh set of attempts whenever they made progress,
+ * so a large upload over a flaky connection is not given up as long as it advances.
+ */
+public class RetryingCallable<T> implements Callable<T> {
+
+    /**
+     * The delay before the first retry in milliseconds, on average half of it
+     */
+    static final long BASE_DELAY = 1000;
+
+    /**
+     * The longest delay between two attempts in milliseconds
+     */
+    static final long MAX_DELAY = 30000;
+
+    private final Callable<T> task;
+    private final int maxRetries;
+    private final Listener listener;
+
+    /**
+     * Is informed before the task is called again.
+     */
+    public interface Listener {
+
+        /**
+         * @param attempt the number of the upcoming retry, starting with 1
+         * @param delay   the time in milliseconds until the retry
+         * @param cause   the failure of the previous attempt
+         */
+        void retrying(int attempt, long delay, Exception cause);
+    }
+
+    /**
+     * A task that continues where the previous attempt stopped.
+     */
+    public interface Resumable {
+
+        /**
+         * @return the amount of work that is done and does not need to be repeated, e.g. uploaded bytes
+         */
+        long getProgress();
+    }
+
+    /**
+     * @param task       the task
+     * @param maxRetries the number of retries after the first attempt
+     * @param listener   is informed about retries
+     */
+    public RetryingCallable(Callable<T> task, int maxRetries, Listener listener) {
+        this.task = task;
+        this.maxRetries = maxRetries;
+        this.listener = listener;
+    }
+
+    @Override
+    public T call() throws Exception {
+        int retries = 0;
+        long progress = getProgress();
+        while (true) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted() || !isTransient(e)) {
+                    throw e;
+                }
+                long newProgress = getProgress();
+                if (newProgress > progress) {
+                    progress = newProgress;
+                    retries = 0;
+                }
+                if (retries >= maxRetries) {
+                    throw e;
+                }
+                retries++;
+                long delay = getDelay(retries, e);
+                listener.retrying(retries, delay, e);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private long getProgress() {
+        return task instanceof Resumable ? ((Resumable) task).getProgress() : 0;
+    }
+
+    /**
+     * @param retry the number of the retry, starting with 1
+     * @return a random delay between 0 and an exponentially growing limit, but not shorter than the server asked for
+     */
+    static long getDelay(int retry, Exception cause) {
+        long limit = MAX_DELAY;
+        if (retry <= 16) {
+            limit = Math.min(MAX_DELAY, BASE_DELAY << (retry - 1));
+        }
+        long delay = ThreadLocalRandom.current().nextLong(limit + 1);
+        if (cause instanceof HttpStatusException) {
+            delay = Math.max(delay, Math.min(((HttpStatusException) cause).getRetryAfter(), MAX_DELAY));
+        }
+        return delay;
+    }
+
+    /**
+     * @param e the failure
+     * @return true if the failure is temporary, i.e. the same request may succeed later
+     */
+    public static boolean isTransient(Exception e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isTransient();
+        }
+        // timeouts, connection resets, DNS failures while offline and the like
+        return e instanceof InterruptedIOException
+                || e instanceof SocketException
+                || e instanceof UnknownHostException
+                || e instanceof NoHttpResponseException
+                || e instanceof ConnectionClosedException;
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP client that is shared by all uploads of the JVM. Connections are pooled and kept alive,
+ * so that retries and further uploads to the same host skip the TCP and TLS handshakes. Idle and expired
+ * connections are closed by a daemon thread.
+ * <p>
+ * All requests time out, so that a stalled server cannot block an upload forever.
+ * The client is configured by the properties of the first report that uses it and must not be closed.
+ */
+public final class SharedHttpClient {
+
+    private static final long DEFAULT_CONNECT_TIMEOUT = 15;
+    private static final long DEFAULT_SOCKET_TIMEOUT = 60;
+    private static final long DEFAULT_KEEP_ALIVE = 30;
+    private static final long DEFAULT_MAX_CONNECTIONS = 8;
+
+    /**
+     * Pooled connections that were idle for longer than this are checked before they are reused
+     */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private static CloseableHttpClient instance;
+
+    private SharedHttpClient() {
+        // no instances
+    }
+
+    /**
+     * @param properties the properties that configure the client when it is created
+     * @return the shared client, created on first use
+     */
+    public static synchronized CloseableHttpClient get(GlobalProperties properties) {
+        if (instance == null) {
+            instance = create(properties);
+        }
+        return instance;
+    }
+
+    private static CloseableHttpClient create(GlobalProperties properties) {
+        int connectTimeout = toMillis(properties.getLong(KEY.UPLOAD_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT));
+        int socketTimeout = toMillis(properties.getLong(KEY.UPLOAD_SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT));
+        final long keepAlive = TimeUnit.SECONDS.toMillis(Math.max(1, properties.getLong(KEY.UPLOAD_KEEP_ALIVE, DEFAULT_KEEP_ALIVE)));
+        int maxConnections = (int) Math.max(1, properties.getLong(KEY.UPLOAD_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        // uploads usually go to a single host
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                // waiting for a free connection of the pool
+                .setConnectionRequestTimeout(connectTimeout)
+                .build();
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                // the server's "Keep-Alive: timeout=n" if shorter, but never forever
+                return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+            }
+        };
+
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .useSystemProperties()
+                .build();
+    }
+
+    private static int toMillis(long seconds) {
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.SECONDS.toMillis(Math.max(0, seconds)));
+    }
+}
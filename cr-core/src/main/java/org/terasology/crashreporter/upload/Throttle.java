@@ -0,0 +1,56 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of uploads with a token bucket, so that an upload does not take all the bandwidth
+ * of a game that keeps running. A short burst is sent at once, everything beyond it is delayed
+ * so that the average rate stays at the limit. One throttle is shared by the parallel uploads of a report.
+ */
+public final class Throttle {
+
+    private final long bytesPerSecond;
+    private final long burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond the maximum average rate
+     */
+    public Throttle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        // a tenth of a second, so the rate is smooth enough to keep latency low for others
+        this.burst = Math.max(16 * 1024, bytesPerSecond / 10);
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Waits until the bytes may be sent.
+     * @param bytes the number of bytes that are sent next
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+            // the bytes are sent after the debt has been paid off
+            tokens -= bytes;
+            wait = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.terasology.crashreporter.GlobalProperties;
+import org.terasology.crashreporter.GlobalProperties.KEY;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the links of uploaded reports by the hash of their content (see {@link ContentHash}),
+ * so that uploading the same log again - e.g. after the same crash - reuses the existing link.
+ * <p>
+ * The links are stored in a small file, so they are shared by all reporter runs. They expire after
+ * a while, as pastes are deleted by their hosts eventually. Entries are added while holding a lock on
+ * <code>uploads.properties.lock</code>, and the file is read again before, so that several instances and
+ * processes that upload at the same time do not drop the entries of each other.
+ * <p>
+ * It also remembers the last upload of every log file, so that a later report of the same,
+ * grown log only needs to send the lines that were added since (see {@link LastUpload}).
+ */
+public final class UploadCache {
+
+    private static final String FILE_NAME = "uploads.properties";
+    private static final long DEFAULT_MAX_DAYS = 7;
+    private static final int MAX_ENTRIES = 100;
+
+    /**
+     * File locks are held by the whole process, so the threads of this process take turns first
+     */
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final Path file;
+    private final long maxAge;
+
+    /**
+     * @param file   the file that stores the links
+     * @param maxAge the time in milliseconds after which a link is no longer used
+     */
+    public UploadCache(Path file, long maxAge) {
+        this.file = file;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @param properties    the properties that configure the cache
+     * @param logFileFolder the log file folder or <code>null</code>
+     * @return the cache, or <code>null</code> if it is disabled or no folder for it is known
+     */
+    public static UploadCache create(GlobalProperties properties, Path logFileFolder) {
+        Path directory = ReportSpool.getDirectory(properties, logFileFolder);
+        long days = properties.getLong(KEY.UPLOAD_CACHE_DAYS, DEFAULT_MAX_DAYS);
+        if (directory == null || days <= 0) {
+            return null;
+        }
+        return new UploadCache(directory.resolve(FILE_NAME), TimeUnit.DAYS.toMillis(days));
+    }
+
+    /**
+     * @param target where the report was uploaded to, see {@link ReportSpool.Report#getTarget()}
+     * @param hash   the hash of the content
+     * @return the link of the upload or <code>null</code> if it is not known or expired
+     */
+    public URL get(String target, String hash) {
+        String value = load().getProperty(key(target, hash));
+        if (value == null) {
+            return null;
+        }
+        int space = value.indexOf(' ');
+        try {
+            long created = Long.parseLong(value.substring(0, space));
+            if (System.currentTimeMillis() - created > maxAge) {
+                return null;
+            }
+            return new URL(value.substring(space + 1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException | MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param target where the report was uploaded to, see {@link ReportSpool.Report#getTarget()}
+     * @param hash   the hash of the content
+     * @param url    the link of the upload
+     */
+    public void put(String target, String hash, URL url) {
+        try {
+            update(key(target, hash), System.currentTimeMillis() + " " + url);
+        } catch (IOException e) {
+            // the link is just not remembered
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param target   where the log was uploaded to
+     * @param fileName the name of the log file
+     * @return the last upload of the log or <code>null</code> if it is not known or expired
+     */
+    public LastUpload getLastUpload(String target, String fileName) {
+        String value = load().getProperty(lastUploadKey(target, fileName));
+        if (value == null) {
+            return null;
+        }
+        // created, length, hash and link, separated by spaces
+        String[] fields = value.split(" ", 4);
+        try {
+            long created = Long.parseLong(fields[0]);
+            if (fields.length < 4 || System.currentTimeMillis() - created > maxAge) {
+                return null;
+            }
+            return new LastUpload(Long.parseLong(fields[1]), fields[2], new URL(fields[3]));
+        } catch (NumberFormatException | MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param target   where the log was uploaded to
+     * @param fileName the name of the log file
+     * @param upload   the upload of the complete log
+     */
+    public void putLastUpload(String target, String fileName, LastUpload upload) {
+        try {
+            update(lastUploadKey(target, fileName), System.currentTimeMillis() + " " + upload.getLength()
+                    + " " + upload.getHash() + " " + upload.getUrl());
+        } catch (IOException e) {
+            // the next report just sends the complete log
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds an entry to the entries that are on disk now, which may have been added by another process.
+     */
+    private void update(String key, String value) throws IOException {
+        Files.createDirectories(file.getParent());
+        synchronized (PROCESS_LOCK) {
+            try (FileChannel lockChannel = FileChannel.open(file.resolveSibling(FILE_NAME + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock()) {
+                Properties entries = load();
+                entries.setProperty(key, value);
+                removeOldest(entries);
+                save(entries);
+            }
+        }
+    }
+
+    private static String key(String target, String hash) {
+        return target + "|" + hash;
+    }
+
+    private static String lastUploadKey(String target, String fileName) {
+        return "last|" + target + "|" + fileName;
+    }
+
+    /**
+     * Removes expired entries, and the oldest entries beyond the maximum number of entries.
+     */
+    private void removeOldest(final Properties entries) {
+        List<String> keys = new ArrayList<>(entries.stringPropertyNames());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(created(entries, b), created(entries, a));
+            }
+        });
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (i >= MAX_ENTRIES || now - created(entries, key) > maxAge) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static long created(Properties entries, String key) {
+        String value = entries.getProperty(key, "");
+        try {
+            return Long.parseLong(value.substring(0, value.indexOf(' ')));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    private Properties load() {
+        Properties entries = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            entries.load(in);
+        } catch (NoSuchFileException e) {
+            // nothing uploaded yet
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Unable to read " + file + ": " + e.getMessage());
+        }
+        return entries;
+    }
+
+    private void save(Properties entries) throws IOException {
+        // a new file, in case a crashed process left its file behind
+        Path temp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                entries.store(out, "Links of uploaded reports by the SHA-256 of their content");
+            }
+            // readers never see a partially written file
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * The uploaded state of a log file that keeps growing.
+     */
+    public static final class LastUpload {
+
+        private final long length;
+        private final String hash;
+        private final URL url;
+
+        /**
+         * @param length the number of UTF-8 bytes that were uploaded
+         * @param hash   the hash of these bytes, see {@link ContentHash}
+         * @param url    the link of the upload, which identifies it on the server
+         */
+        public LastUpload(long length, String hash, URL url) {
+            this.length = length;
+            this.hash = hash;
+            this.url = url;
+        }
+
+        /**
+         * @return the number of UTF-8 bytes that were uploaded
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the hash of the uploaded bytes as hex string
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the link of the upload
+         */
+        public URL getUrl() {
+            return url;
+        }
+    }
+}
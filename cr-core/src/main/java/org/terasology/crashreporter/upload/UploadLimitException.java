@@ -0,0 +1,22 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import java.io.IOException;
+
+/**
+ * A server refused an upload because of one of its limits, e.g. the number of uploads per day or the size
+ * of a single upload. Sending it again right away does not help, but it may succeed later.
+ */
+public class UploadLimitException extends IOException {
+
+    private static final long serialVersionUID = -3305283406371180924L;
+
+    /**
+     * @param message the response of the server or a description of the limit
+     */
+    public UploadLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,201 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes of an upload while they are sent and allows to cancel the upload from another thread.
+ * It is read by the UI, e.g. by a timer, so that progress updates cost nothing on the upload thread.
+ * <p>
+ * All requests of an upload must be executed through {@link #execute(CloseableHttpClient, HttpRequestBase)}.
+ * {@link #cancel()} aborts the running request - its connection is closed and not returned to the pool -
+ * and makes the upload fail with a {@link CancellationException}.
+ * <p>
+ * Uploads that consist of several parts that are uploaded at the same time use one monitor per part,
+ * see {@link #createPart()}. The counts of the parts add up, and cancelling the upload cancels all parts.
+ * <p>
+ * The bytes can be sent at a limited rate, see {@link #setThrottle(Throttle)}. The limit applies to the content
+ * before compression, so less is sent over the network.
+ */
+public final class UploadMonitor {
+
+    private static final int SLICE_SIZE = 16 * 1024;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final List<UploadMonitor> parts = new CopyOnWriteArrayList<>();
+    private volatile long total = -1;
+    private volatile boolean cancelled;
+    private volatile Throttle throttle;
+    private HttpRequestBase request;
+
+    /**
+     * @return the number of content bytes that were sent, before compression
+     */
+    public long getSent() {
+        long result = sent.get();
+        for (UploadMonitor part : parts) {
+            result += part.getSent();
+        }
+        return result;
+    }
+
+    /**
+     * @param count the number of content bytes that were sent, e.g. before an upload is resumed
+     */
+    public void setSent(long count) {
+        sent.set(count);
+    }
+
+    /**
+     * @return the number of content bytes to send or -1 if it is not known - parts count once their size is known
+     */
+    public long getTotal() {
+        long result = total;
+        for (UploadMonitor part : parts) {
+            long partTotal = part.getTotal();
+            if (partTotal >= 0) {
+                result = Math.max(result, 0) + partTotal;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param total the number of content bytes to send or -1 if it is not known
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return true if the upload was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Aborts the upload. Can be called from any thread.
+     */
+    public void cancel() {
+        HttpRequestBase running;
+        synchronized (this) {
+            cancelled = true;
+            running = request;
+        }
+        if (running != null) {
+            running.abort();
+        }
+        for (UploadMonitor part : parts) {
+            part.cancel();
+        }
+    }
+
+    /**
+     * @param throttle limits the rate of all requests, also of parts that are created afterwards, or <code>null</code>
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return a new monitor for a part of the upload that is counted as part of this one
+     */
+    public UploadMonitor createPart() {
+        UploadMonitor part = new UploadMonitor();
+        part.throttle = throttle;
+        synchronized (this) {
+            parts.add(part);
+            if (cancelled) {
+                part.cancel();
+            }
+        }
+        return part;
+    }
+
+    /**
+     * Counts the bytes of an entity while it is sent. Entities that are compressed must be wrapped
+     * before they are compressed, so that the content bytes are counted.
+     * @param entity the entity
+     * @param offset the number of bytes that were sent by earlier requests, e.g. for previous chunks
+     * @return the counting entity
+     */
+    public HttpEntity track(HttpEntity entity, final long offset) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                // a new attempt starts over
+                sent.set(offset);
+                wrappedEntity.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        acquire(1);
+                        out.write(b);
+                        sent.incrementAndGet();
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        // e.g. chunks are written at once - count them while the socket accepts them
+                        for (int pos = off; pos < off + len; pos += SLICE_SIZE) {
+                            int count = Math.min(SLICE_SIZE, off + len - pos);
+                            acquire(count);
+                            out.write(b, pos, count);
+                            sent.addAndGet(count);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private void acquire(int bytes) throws IOException {
+        Throttle current = throttle;
+        if (current != null) {
+            current.acquire(bytes);
+        }
+    }
+
+    /**
+     * Executes a request of the upload, so that it can be aborted.
+     * @param client  the client
+     * @param request the request
+     * @return the response
+     * @throws IOException if the request fails
+     * @throws CancellationException if the upload was cancelled
+     */
+    public CloseableHttpResponse execute(CloseableHttpClient client, HttpRequestBase request) throws IOException {
+        synchronized (this) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            this.request = request;
+        }
+        try {
+            return client.execute(request);
+        } catch (IOException e) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                this.request = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+// Copyright 2021 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.crashreporter.pages;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.terasology.crashreporter.upload.RetryingCallable;
+import org.terasology.crashreporter.upload.UploadMonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Uploads a log of several chunks to a stand-in server that fails in the ways a real server or
+ * connection does, and checks that the server ends up with exactly the log.
+ */
+public class HostedUploadRunnableTest {
+
+    private static final String LOG_URL = "http://logs.example.org/1";
+
+    private StandInServer handler;
+    private HttpServer server;
+    private URI postUri;
+    private CloseableHttpClient client;
+    private final AtomicInteger retries = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        handler = new StandInServer();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        // a new port for every test, so that no test inherits what an earlier one taught the runnable about the host
+        postUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+        client = HttpClients.createDefault();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testUploadInChunks() throws Exception {
+        String log = createLog();
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertArrayEquals(log.getBytes(StandardCharsets.UTF_8), handler.getStored());
+        assertTrue(handler.getPatchOffsets().size() > 2);
+        assertEquals(0, retries.get());
+    }
+
+    @Test
+    public void testResumeAfterServerError() throws Exception {
+        String log = createLog();
+        handler.fail(2, Fault.UNAVAILABLE);
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertArrayEquals(log.getBytes(StandardCharsets.UTF_8), handler.getStored());
+        assertEquals(1, retries.get());
+        // the second chunk is sent again at the offset the server reported, not the whole log
+        List<Long> offsets = handler.getPatchOffsets();
+        assertTrue(offsets.get(1) > 0);
+        assertEquals(offsets.get(1), offsets.get(2));
+        assertTrue(handler.getRequests().contains("HEAD"));
+        assertEquals(log.getBytes(StandardCharsets.UTF_8).length, handler.getReceived());
+    }
+
+    @Test
+    public void testResumeAfterLostResponse() throws Exception {
+        String log = createLog();
+        handler.fail(2, Fault.RESPONSE_LOST);
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertArrayEquals(log.getBytes(StandardCharsets.UTF_8), handler.getStored());
+        assertEquals(1, retries.get());
+        assertTrue(handler.getRequests().contains("HEAD"));
+        // the stored chunk is not sent again
+        List<Long> offsets = handler.getPatchOffsets();
+        assertEquals(offsets.size(), new HashSet<>(offsets).size());
+        assertEquals(log.getBytes(StandardCharsets.UTF_8).length, handler.getReceived());
+    }
+
+    @Test
+    public void testResendAfterChecksumMismatch() throws Exception {
+        String log = createLog();
+        handler.fail(2, Fault.CHECKSUM_MISMATCH);
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertArrayEquals(log.getBytes(StandardCharsets.UTF_8), handler.getStored());
+        assertEquals(0, retries.get());
+        List<Long> offsets = handler.getPatchOffsets();
+        assertEquals(offsets.get(1), offsets.get(2));
+    }
+
+    @Test
+    public void testResyncAfterConflict() throws Exception {
+        String log = createLog();
+        // the server loses the second chunk and rejects the third
+        handler.fail(3, Fault.DATA_LOST);
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertArrayEquals(log.getBytes(StandardCharsets.UTF_8), handler.getStored());
+        assertEquals(0, retries.get());
+        List<Long> offsets = handler.getPatchOffsets();
+        assertEquals(offsets.get(1), offsets.get(3));
+        assertEquals(offsets.get(2), offsets.get(4));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {404, 405, 501})
+    public void testSingleRequestWithoutResumableUploads(int status) throws Exception {
+        String log = createLog();
+        handler.rejectResumable(status);
+
+        assertEquals(new URL(LOG_URL), upload(log));
+        assertTrue(handler.getPatchOffsets().isEmpty());
+        assertTrue(handler.getRequests().contains("POST /upload"));
+        String body = new String(handler.getSingleRequest(), StandardCharsets.UTF_8);
+        assertTrue(body.contains(log));
+    }
+
+    private URL upload(String log) throws Exception {
+        HostedUploadRunnable runnable = new HostedUploadRunnable(client, postUri, new CharSequenceReader(log),
+                "Terasology.log", null, new UploadMonitor());
+        RetryingCallable.Listener listener = new RetryingCallable.Listener() {
+            @Override
+            public void retrying(int attempt, long delay, Exception cause) {
+                retries.incrementAndGet();
+            }
+        };
+        return new RetryingCallable<>(runnable, 3, listener).call();
+    }
+
+    /**
+     * @return a log of a few chunks with characters of every UTF-8 length
+     */
+    private static String createLog() {
+        StringBuilder log = new StringBuilder();
+        int i = 0;
+        while (log.length() < 3 * ResumableUpload.CHUNK_SIZE) {
+            log.append("line ").append(i++).append(" \u00e9\u20ac\ud83d\ude00\n");
+        }
+        return log.toString();
+    }
+
+    private enum Fault {
+        /**
+         * Answers <code>503 Service Unavailable</code> without storing the chunk
+         */
+        UNAVAILABLE,
+
+        /**
+         * Stores the chunk, but closes the connection before the response
+         */
+        RESPONSE_LOST,
+
+        /**
+         * Answers <code>460</code> as if the chunk was corrupted on the way
+         */
+        CHECKSUM_MISMATCH,
+
+        /**
+         * Drops the previous chunk and answers <code>409 Conflict</code>
+         */
+        DATA_LOST
+    }
+
+    /**
+     * Implements the protocol of {@link ResumableUpload} for a single upload, and the single request upload.
+     */
+    private static final class StandInServer implements HttpHandler {
+
+        private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> patchOffsets = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<Long> chunkStarts = new ArrayList<>();
+        private ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        private byte[] singleRequest;
+        private long received;
+        private int resumableStatus;
+        private int faultyPatch;
+        private Fault fault;
+
+        synchronized void fail(int patch, Fault patchFault) {
+            this.faultyPatch = patch;
+            this.fault = patchFault;
+        }
+
+        synchronized void rejectResumable(int status) {
+            this.resumableStatus = status;
+        }
+
+        List<String> getRequests() {
+            return new ArrayList<>(requests);
+        }
+
+        List<Long> getPatchOffsets() {
+            return new ArrayList<>(patchOffsets);
+        }
+
+        synchronized byte[] getStored() {
+            return stored.toByteArray();
+        }
+
+        synchronized byte[] getSingleRequest() {
+            return singleRequest;
+        }
+
+        synchronized long getReceived() {
+            return received;
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = readBody(exchange);
+            if (method.equals("POST") || method.equals("GET")) {
+                requests.add(method + " " + path);
+            } else {
+                requests.add(method);
+            }
+
+            if (path.startsWith("/upload/known/")) {
+                respond(exchange, 404, null);
+            } else if (method.equals("POST") && path.equals("/upload/resumable")) {
+                if (resumableStatus != 0) {
+                    respond(exchange, resumableStatus, null);
+                    return;
+                }
+                chunkStarts.clear();
+                stored = new ByteArrayOutputStream();
+                exchange.getResponseHeaders().add("Location", "/upload/resumable/1");
+                respond(exchange, 201, null);
+            } else if (method.equals("POST") && path.equals("/upload")) {
+                singleRequest = body;
+                respond(exchange, 200, LOG_URL);
+            } else if (method.equals("HEAD")) {
+                exchange.getResponseHeaders().add("Upload-Offset", Integer.toString(stored.size()));
+                respond(exchange, 200, null);
+            } else if (method.equals("PATCH")) {
+                patch(exchange, body);
+            } else {
+                respond(exchange, 405, null);
+            }
+        }
+
+        private void patch(HttpExchange exchange, byte[] chunk) throws IOException {
+            long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+            patchOffsets.add(offset);
+            Fault current = patchOffsets.size() == faultyPatch ? fault : null;
+            if (current == Fault.UNAVAILABLE) {
+                respond(exchange, 503, "Try again later");
+                return;
+            }
+            if (current == Fault.CHECKSUM_MISMATCH || !("sha-256 " + checksum(chunk)).equals(
+                    exchange.getRequestHeaders().getFirst("Upload-Checksum"))) {
+                respond(exchange, 460, null);
+                return;
+            }
+            if (current == Fault.DATA_LOST) {
+                byte[] data = stored.toByteArray();
+                long start = chunkStarts.remove(chunkStarts.size() - 1);
+                stored = new ByteArrayOutputStream();
+                stored.write(data, 0, (int) start);
+            }
+            if (offset != stored.size()) {
+                respond(exchange, 409, null);
+                return;
+            }
+            chunkStarts.add(offset);
+            stored.write(chunk);
+            received += chunk.length;
+            if (current == Fault.RESPONSE_LOST) {
+                // without response headers, closing the exchange closes the connection
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Upload-Offset", Integer.toString(stored.size()));
+            if (exchange.getRequestHeaders().getFirst("Upload-Length") != null) {
+                respond(exchange, 200, LOG_URL);
+            } else {
+                respond(exchange, 204, null);
+            }
+        }
+
+        private static byte[] readBody(HttpExchange exchange) throws IOException {
+            InputStream in = exchange.getRequestBody();
+            byte[] body = readAll(in);
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            return body;
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] block = new byte[8192];
+            int count;
+            while ((count = in.read(block)) > 0) {
+                out.write(block, 0, count);
+            }
+            return out.toByteArray();
+        }
+
+        private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+            if (text == null) {
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            }
+            exchange.close();
+        }
+
+        private static String checksum(byte[] chunk) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return Base64.getEncoder().encodeToString(digest.digest(chunk));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}